@@ -0,0 +1,177 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+public final class Artifact {
+
+    private static final Path DEFAULT_DIRECTORY = Paths.get("plugins/vCompat");
+
+    public static final Artifact VCOMPAT = builder("vCompat").source(ReleaseSource.VCOMPAT).assets("vcompat")
+        .metadata("net.sourcewriters.minecraft", "vcompat").build();
+
+    public static final class Builder {
+
+        private final String id;
+
+        private ReleaseSource source;
+        private Predicate<String> assets;
+        private Path directory = DEFAULT_DIRECTORY;
+        private String fileName;
+        private String metadata;
+        private VersionRule rule = VersionRule.latest();
+        private boolean optional = false;
+
+        private Builder(String id) {
+            this.id = Objects.requireNonNull(id, "Id can not be null!");
+        }
+
+        public Builder source(ReleaseSource source) {
+            this.source = source;
+            return this;
+        }
+
+        /*
+         * Matches release jars named '<prefix>-<version>.jar', sources and javadoc
+         * jars are ignored
+         */
+        public Builder assets(String prefix) {
+            this.assets = prefix == null ? null : prefixMatcher(prefix);
+            return this;
+        }
+
+        /*
+         * The matched jar is downloaded, '<jar>.gz' and '<jar without .jar>-from-<installed version>.patch'
+         * are preferred if the release has them
+         */
+        public Builder assets(Predicate<String> matcher) {
+            this.assets = matcher;
+            return this;
+        }
+
+        public Builder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder fileName(String fileName) {
+            this.fileName = fileName;
+            return this;
+        }
+
+        /*
+         * The installed version is read from the pom.properties of the given maven
+         * coordinates, if not set the first pom.properties in the jar is used
+         */
+        public Builder metadata(String groupId, String artifactId) {
+            this.metadata = groupId == null || artifactId == null ? null
+                : "META-INF/maven/" + groupId + '/' + artifactId + "/pom.properties";
+            return this;
+        }
+
+        public Builder rule(VersionRule rule) {
+            this.rule = rule;
+            return this;
+        }
+
+        /*
+         * Optional artifacts that can't be installed are skipped instead of failing
+         * the update
+         */
+        public Builder optional(boolean optional) {
+            this.optional = optional;
+            return this;
+        }
+
+        public Artifact build() {
+            return new Artifact(this);
+        }
+
+    }
+
+    private final String id;
+    private final ReleaseSource source;
+    private final Predicate<String> assets;
+    private final Path directory;
+    private final String fileName;
+    private final String metadata;
+    private final VersionRule rule;
+    private final boolean optional;
+
+    private Artifact(Builder builder) {
+        this.id = builder.id;
+        this.source = Objects.requireNonNull(builder.source, "Source can not be null!");
+        this.assets = builder.assets == null ? prefixMatcher(id.toLowerCase(Locale.ROOT)) : builder.assets;
+        this.directory = Objects.requireNonNull(builder.directory, "Directory can not be null!");
+        this.fileName = builder.fileName == null ? id + ".jar" : builder.fileName;
+        this.metadata = builder.metadata;
+        this.rule = Objects.requireNonNull(builder.rule, "Rule can not be null!");
+        this.optional = builder.optional;
+    }
+
+    private static Predicate<String> prefixMatcher(String prefix) {
+        return Pattern.compile(Pattern.quote(prefix) + "-\\d[^/]*(?<!-sources|-javadoc)\\.jar").asMatchPredicate();
+    }
+
+    public static Builder builder(String id) {
+        return new Builder(id);
+    }
+
+    public Builder toBuilder() {
+        Builder builder = new Builder(id);
+        builder.source = source;
+        builder.assets = assets;
+        builder.directory = directory;
+        builder.fileName = fileName;
+        builder.metadata = metadata;
+        builder.rule = rule;
+        builder.optional = optional;
+        return builder;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public ReleaseSource getSource() {
+        return source;
+    }
+
+    public Predicate<String> getAssets() {
+        return assets;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public Path getFile() {
+        return directory.resolve(fileName);
+    }
+
+    public String getMetadata() {
+        return metadata;
+    }
+
+    public VersionRule getRule() {
+        return rule;
+    }
+
+    public boolean isOptional() {
+        return optional;
+    }
+
+    boolean isJar(String name) {
+        return assets.test(name);
+    }
+
+    @Override
+    public String toString() {
+        return id + " (" + source + ')';
+    }
+
+}
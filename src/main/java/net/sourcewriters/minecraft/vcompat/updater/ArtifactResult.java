@@ -0,0 +1,59 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.net.SocketTimeoutException;
+
+final class ArtifactResult {
+
+    private final Artifact artifact;
+    private final String version;
+
+    private final State state;
+    private final Reason reason;
+    private final String message;
+    private final Throwable exception;
+
+    private ArtifactResult(Artifact artifact, String version, State state, Reason reason, String message, Throwable exception) {
+        this.artifact = artifact;
+        this.version = version;
+        this.state = state;
+        this.reason = reason;
+        this.message = message;
+        this.exception = exception;
+    }
+
+    public static ArtifactResult success(Artifact artifact, String version) {
+        return new ArtifactResult(artifact, version, State.SUCCESS, null, null, null);
+    }
+
+    public static ArtifactResult failed(Artifact artifact, Throwable exp) {
+        if (exp instanceof SocketTimeoutException) {
+            return new ArtifactResult(artifact, null, State.FAILED, Reason.NO_CONNECTION, "Unable to connect to Github!", null);
+        }
+        return new ArtifactResult(artifact, null, State.FAILED, Reason.UNKNOWN, exp.getMessage(), exp);
+    }
+
+    public Artifact getArtifact() {
+        return artifact;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Throwable getException() {
+        return exception;
+    }
+
+}
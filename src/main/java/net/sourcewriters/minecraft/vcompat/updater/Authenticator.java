@@ -2,12 +2,17 @@ package net.sourcewriters.minecraft.vcompat.updater;
 
 import java.net.HttpURLConnection;
 
-import com.syntaxphoenix.syntaxapi.net.http.Request;
-
+/*
+ * Called for every request the updater sends, the Github api lookups of tags
+ * and releases as well as the asset downloads.
+ *
+ * Up to 1.0.4 api lookups were authenticated through 'authenticate(Request)' of
+ * syntaxapi and only downloads through this method. That overload was removed
+ * together with the syntaxapi dependency, tokens have to be set here now.
+ */
+@FunctionalInterface
 public interface Authenticator {
-    
-    void authenticate(Request request);
-    
+
     void authenticate(HttpURLConnection connection);
 
 }
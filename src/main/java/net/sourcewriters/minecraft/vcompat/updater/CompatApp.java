@@ -1,11 +1,16 @@
 package net.sourcewriters.minecraft.vcompat.updater;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 public abstract class CompatApp {
 
+    private static final AtomicReferenceFieldUpdater<CompatApp, AppState> STATE = AtomicReferenceFieldUpdater.newUpdater(CompatApp.class,
+        AppState.class, "state");
+
     private final String id;
     private final int version;
 
-    AppState state = AppState.NONE;
+    volatile AppState state = AppState.NONE;
 
     public CompatApp(String id, int version) {
         this.id = id;
@@ -33,6 +38,10 @@ public abstract class CompatApp {
         return state;
     }
 
+    final boolean transition(AppState expected, AppState next) {
+        return STATE.compareAndSet(this, expected, next);
+    }
+
     protected void onFailed(Reason reason, String message, Throwable throwable) {}
 
     protected void onReady() {}
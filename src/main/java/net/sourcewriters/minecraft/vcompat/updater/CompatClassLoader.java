@@ -0,0 +1,27 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.List;
+
+final class CompatClassLoader extends URLClassLoader {
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    public CompatClassLoader(List<Path> files, ClassLoader parent) throws MalformedURLException {
+        super("vCompat", toUrls(files), parent);
+    }
+
+    private static URL[] toUrls(List<Path> files) throws MalformedURLException {
+        URL[] urls = new URL[files.size()];
+        for (int index = 0; index < urls.length; index++) {
+            urls[index] = files.get(index).toUri().toURL();
+        }
+        return urls;
+    }
+
+}
@@ -1,40 +1,28 @@
 package net.sourcewriters.minecraft.vcompat.updater;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.reflect.Field;
-import java.net.HttpURLConnection;
-import java.net.SocketTimeoutException;
-import java.net.URL;
 import java.net.URLClassLoader;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-
-import com.syntaxphoenix.syntaxapi.json.JsonArray;
-import com.syntaxphoenix.syntaxapi.json.JsonObject;
-import com.syntaxphoenix.syntaxapi.json.JsonValue;
-import com.syntaxphoenix.syntaxapi.json.ValueType;
-import com.syntaxphoenix.syntaxapi.json.value.JsonInteger;
-import com.syntaxphoenix.syntaxapi.net.http.Request;
-import com.syntaxphoenix.syntaxapi.net.http.RequestType;
-import com.syntaxphoenix.syntaxapi.net.http.Response;
-import com.syntaxphoenix.syntaxapi.net.http.StandardContentType;
 
 import sun.misc.Unsafe;
 
@@ -42,26 +30,25 @@ public final class CompatUpdater {
 
     public static final CompatUpdater INSTANCE = new CompatUpdater();
 
-    private static final String GITHUB_RELEASE = "https://api.github.com/repos/SourceWriters/vCompat/releases/tags/%s";
-    private static final String GITHUB_TAGS = "https://api.github.com/repos/SourceWriters/vCompat/tags";
-
-    private final HashMap<String, CompatApp> apps = new HashMap<>();
+    private final ConcurrentHashMap<String, CompatApp> apps = new ConcurrentHashMap<>();
+    private final DemandIndex demand = new DemandIndex();
     private final Lock read, write;
 
-    private final Path directory = Paths.get("plugins/vCompat");
-    private final Path file = directory.resolve("vCompat.jar");
+    private volatile UpdaterScheduler scheduler = new UpdaterScheduler();
+    private final AtomicReference<CompletableFuture<State>> update = new AtomicReference<>();
 
     private final Unsafe unsafe;
     private final Lookup lookup;
 
-    private URLClassLoader urlClassLoader;
+    private Artifact compat = Artifact.VCOMPAT;
+    private final LinkedHashMap<String, Artifact> artifacts = new LinkedHashMap<>();
+    private final HashMap<String, String> installed = new HashMap<>();
 
-    private String githubVersion;
-    private String exactVersion;
+    private ClassLoader classLoader;
+    private LoaderMode loaderMode = LoaderMode.INJECTED;
 
     private State state = State.NONE;
     private int version = 0;
-    private int requested = 0;
 
     private Reason reason;
     private String message;
@@ -111,7 +98,7 @@ public final class CompatUpdater {
 
     public void register(CompatApp app) {
         String id = app.getId();
-        if (id == null || isRegistered(id)) {
+        if (id == null) {
             app.onFailed(Reason.ALREADY_REGISTERED, "Your App '" + id + "' is already registered!", null);
             app.state = AppState.FAILED;
             return;
@@ -119,169 +106,280 @@ public final class CompatUpdater {
         if (app.state == AppState.FAILED) {
             return;
         }
-        write.lock();
-        try {
-            apps.put(id, app);
-            if (app.state != AppState.STARTED) {
-                app.state = AppState.KNOWN;
-            }
-            int tmp = app.getTargetVersion();
-            if (requested < tmp) {
-                requested = tmp;
-            }
-        } finally {
-            write.unlock();
+        if (apps.putIfAbsent(id, app) != null) {
+            app.onFailed(Reason.ALREADY_REGISTERED, "Your App '" + id + "' is already registered!", null);
+            app.state = AppState.FAILED;
+            return;
+        }
+        if (app.state != AppState.STARTED) {
+            app.state = AppState.KNOWN;
         }
+        demand.add(app);
         if (app.state != AppState.STARTED) {
             return;
         }
+        State state;
+        int version;
+        Reason reason;
+        String message;
+        Throwable exception;
         read.lock();
         try {
-            State state = getState();
-            if (state == State.SUCCESS) {
-                if (app.getTargetVersion() == version) {
+            state = this.state;
+            version = this.version;
+            reason = this.reason;
+            message = this.message;
+            exception = this.exception;
+        } finally {
+            read.unlock();
+        }
+        if (state == State.SUCCESS) {
+            if (app.getTargetVersion() == version) {
+                if (app.transition(AppState.STARTED, AppState.RUNNING)) {
                     app.onReady();
-                    app.state = AppState.RUNNING;
-                    return;
                 }
-                app.onFailed(Reason.INCOMPATIBLE, "The version of vCompat that is installed is incompatible with the app '" + id + "'!",
-                    null);
-                app.state = AppState.FAILED;
                 return;
             }
-            if (state == State.FAILED) {
-                app.onFailed(reason, message, exception);
-                app.state = AppState.FAILED;
-                return;
+            if (app.transition(AppState.STARTED, AppState.FAILED)) {
+                app.onFailed(Reason.INCOMPATIBLE, "The version of vCompat that is installed is incompatible with the app '" + id + "'!",
+                    null);
             }
-        } finally {
-            read.unlock();
+            return;
+        }
+        if (state == State.FAILED && app.transition(AppState.STARTED, AppState.FAILED)) {
+            app.onFailed(reason, message, exception);
+        }
+    }
+
+    public void registerAll(CompatApp... apps) {
+        registerAll(Arrays.asList(apps));
+    }
+
+    public void registerAll(Collection<? extends CompatApp> apps) {
+        for (CompatApp app : apps) {
+            register(app);
         }
     }
 
     public void unregister(CompatApp app) {
         String id = app.getId();
         try {
-            if (id == null || !isRegistered(id)) {
+            if (id == null || !apps.remove(id, app)) {
                 return;
             }
-            write.lock();
-            try {
-                apps.remove(id);
-            } finally {
-                write.unlock();
-            }
+            demand.remove(app);
         } finally {
             app.onShutdown();
             app.state = AppState.NONE;
         }
-        read.lock();
+        if (apps.isEmpty()) {
+            shutdown();
+        }
+    }
+
+    private void shutdown() {
+        write.lock();
         try {
-            if (apps.isEmpty()) {
-                shutdown();
+            if (!apps.isEmpty()) {
+                return;
             }
+            update.set(null);
+            // Work of the running pass is rejected by the closed scheduler, new apps use a fresh one
+            scheduler.shutdown();
+            scheduler = new UpdaterScheduler();
+            ClassLoader loader = classLoader;
+            if (loader != null) {
+                classLoader = null;
+                unload(loader);
+            }
+            if (lookup == null) {
+                // Setup failed, keep the failure for the next apps
+                return;
+            }
+            installed.clear();
+            version = 0;
+            state = State.NONE;
+            reason = null;
+            message = null;
+            exception = null;
         } finally {
-            read.unlock();
+            write.unlock();
         }
     }
 
-    private void shutdown() {
-        ClassLoader loader = urlClassLoader;
-        if (loader == null) {
-            return;
-        }
+    private void unload(ClassLoader loader) {
         try {
             Class<?> control = AccessHelper.getClass("net.sourcewriters.minecraft.vcompat.reflection.VersionControl", loader);
             if (control != null) {
                 Lookup controlLookup = MethodHandles.privateLookupIn(control, lookup);
                 Object controlObj = controlLookup.findStatic(control, "get", MethodType.methodType(control)).invoke();
                 controlLookup.findVirtual(control, "shutdown", MethodType.methodType(void.class)).invoke(controlObj);
-                return;
-            }
-            Class<?> provider = AccessHelper.getClass("net.sourcewriters.minecraft.vcompat.VersionCompatProvider", loader);
-            control = AccessHelper.getClass("net.sourcewriters.minecraft.vcompat.provider.VersionControl", loader);
-            if (provider != null && control != null) {
-                Lookup providerLookup = MethodHandles.privateLookupIn(provider, lookup);
-                Object providerObj = providerLookup.findStatic(provider, "get", MethodType.methodType(provider)).invoke();
-                Object controlObj = providerLookup.findVirtual(provider, "getControl", MethodType.methodType(control)).invoke(providerObj);
-                MethodHandles.privateLookupIn(control, lookup).findVirtual(control, "shutdown", MethodType.methodType(void.class))
-                    .invoke(controlObj);
+            } else {
+                Class<?> provider = AccessHelper.getClass("net.sourcewriters.minecraft.vcompat.VersionCompatProvider", loader);
+                control = AccessHelper.getClass("net.sourcewriters.minecraft.vcompat.provider.VersionControl", loader);
+                if (provider != null && control != null) {
+                    Lookup providerLookup = MethodHandles.privateLookupIn(provider, lookup);
+                    Object providerObj = providerLookup.findStatic(provider, "get", MethodType.methodType(provider)).invoke();
+                    Object controlObj = providerLookup.findVirtual(provider, "getControl", MethodType.methodType(control))
+                        .invoke(providerObj);
+                    MethodHandles.privateLookupIn(control, lookup).findVirtual(control, "shutdown", MethodType.methodType(void.class))
+                        .invoke(controlObj);
+                }
             }
         } catch (Throwable e) {
             // Ignore
         }
-        state = State.NONE;
+        if (isOwned(loader)) {
+            try {
+                ((Closeable) loader).close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private boolean isOwned(ClassLoader loader) {
+        return loader instanceof CompatClassLoader || loader instanceof MappedJarClassLoader;
+    }
+
+    public boolean awaitPending(long timeout, TimeUnit unit) throws InterruptedException {
+        return scheduler.await(timeout, unit);
     }
 
     public boolean isRegistered(String id) {
+        return apps.containsKey(id);
+    }
+
+    public int getAmount() {
+        return apps.size();
+    }
+
+    public int getRequestedVersion() {
+        return demand.getHighest();
+    }
+
+    public int[] getRequestedVersions() {
+        return demand.getVersions();
+    }
+
+    public int getDemand(int version) {
+        return demand.getCount(version);
+    }
+
+    public List<CompatApp> getApps(int version) {
+        return demand.getApps(version);
+    }
+
+    public int getVersion() {
         read.lock();
         try {
-            return apps.containsKey(id);
+            return version;
         } finally {
             read.unlock();
         }
     }
 
-    public int getAmount() {
+    public State getState() {
         read.lock();
         try {
-            return apps.size();
+            return state;
         } finally {
             read.unlock();
         }
     }
 
-    public int getVersion() {
+    public void setAuthenticator(Authenticator authenticator) {
+        write.lock();
+        try {
+            this.authenticator = authenticator;
+        } finally {
+            write.unlock();
+        }
+    }
+
+    public ClassLoader getCompatLoader() {
         read.lock();
         try {
-            return version;
+            return classLoader;
         } finally {
             read.unlock();
         }
     }
 
-    public State getState() {
+    public LoaderMode getLoaderMode() {
         read.lock();
         try {
-            return state;
+            return loaderMode;
         } finally {
             read.unlock();
         }
     }
 
-    public void setAuthenticator(Authenticator authenticator) {
+    public void setLoaderMode(LoaderMode loaderMode) {
         write.lock();
         try {
-            this.authenticator = authenticator;
+            this.loaderMode = loaderMode == null ? LoaderMode.INJECTED : loaderMode;
         } finally {
             write.unlock();
         }
     }
 
-    private void setVersion(int version) {
+    public void setReleaseSource(ReleaseSource source) {
         write.lock();
         try {
-            this.version = version;
+            this.compat = compat.toBuilder().source(source == null ? ReleaseSource.VCOMPAT : source).build();
         } finally {
             write.unlock();
         }
     }
 
-    private void setState(State state) {
+    /*
+     * Companion artifacts are updated in the same pass as vCompat and loaded by the
+     * same class loader, changes apply to the next update pass
+     */
+    public void addArtifact(Artifact artifact) {
+        String id = Objects.requireNonNull(artifact, "Artifact can not be null!").getId();
         write.lock();
         try {
-            this.state = state;
+            if (id.equals(compat.getId()) || artifacts.putIfAbsent(id, artifact) != null) {
+                throw new IllegalArgumentException("Artifact '" + id + "' is already registered!");
+            }
         } finally {
             write.unlock();
         }
     }
 
-    private void setNoConnection() {
+    public boolean removeArtifact(String id) {
         write.lock();
         try {
-            state = State.FAILED;
-            reason = Reason.NO_CONNECTION;
-            message = "Unable to connect to Github!";
+            return artifacts.remove(id) != null;
+        } finally {
+            write.unlock();
+        }
+    }
+
+    public List<Artifact> getArtifacts() {
+        read.lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(artifacts.values()));
+        } finally {
+            read.unlock();
+        }
+    }
+
+    public String getInstalledVersion(String id) {
+        read.lock();
+        try {
+            return installed.get(id);
+        } finally {
+            read.unlock();
+        }
+    }
+
+    void setDirectory(Path directory) {
+        write.lock();
+        try {
+            this.compat = compat.toBuilder().directory(directory).build();
         } finally {
             write.unlock();
         }
@@ -300,360 +398,251 @@ public final class CompatUpdater {
     }
 
     public void run(CompatApp app) {
-        if (app.state == AppState.KNOWN) {
-            app.state = AppState.STARTED;
-        }
-        if (getState() != State.NONE || getAmount() == 0) {
-            if (getState() != State.UPDATING) {
-                updateAll();
-            }
-            return;
-        }
-        setState(State.UPDATING);
-        int tmpVersion = readCurrentVersion();
-        if (tmpVersion == -1) {
+        app.transition(AppState.KNOWN, AppState.STARTED);
+        if (getAmount() == 0) {
             updateAll();
             return;
         }
-        setVersion(tmpVersion);
-        if (!readGithubVersion() && tmpVersion == 0) {
-            updateAll();
-            return;
+        CompletableFuture<State> future;
+        CompletableFuture<State> created = null;
+        UpdaterScheduler scheduler;
+        read.lock();
+        try {
+            scheduler = this.scheduler;
+            future = update.get();
+            if (future == null) {
+                CompletableFuture<State> tmp = new CompletableFuture<>();
+                if (update.compareAndSet(null, tmp)) {
+                    future = created = tmp;
+                } else {
+                    future = update.get();
+                }
+            }
+        } finally {
+            read.unlock();
         }
-        if (!isUpToDate()) {
-            downloadNewVersion();
-            return;
+        if (created != null) {
+            update(scheduler.track(created), scheduler);
         }
-        setState(State.SUCCESS);
-        loadCompatLib();
-        updateAll();
+        future.whenComplete((state, error) -> updateAll());
     }
 
-    private void downloadNewVersion() {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.submit(() -> {
-            String version;
-            Path jarFile;
-            read.lock();
+    private void update(CompletableFuture<State> future, UpdaterScheduler scheduler) {
+        try {
+            State current;
+            boolean start;
+            write.lock();
             try {
-                version = githubVersion;
-                jarFile = file;
+                current = state;
+                start = current == State.NONE && update.get() == future;
+                if (start) {
+                    state = State.UPDATING;
+                }
             } finally {
-                read.unlock();
+                write.unlock();
             }
-            try {
-                String url = getAssetUrl(version);
-                if (url == null) {
-                    read.lock();
-                    try {
-                        version = exactVersion;
-                    } finally {
-                        read.unlock();
-                    }
-                    if (version == null) {
-                        setFailed(new NullPointerException("Couldn't obtain release jar"));
-                        updateAll();
-                        return;
-                    }
-                    loadCompatLib();
-                    setState(State.SUCCESS);
-                    updateAll();
-                    return;
-                }
-                HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-                if (authenticator != null) {
-                    authenticator.authenticate(connection);
-                }
-                connection.connect();
-                try (InputStream input = connection.getInputStream()) {
-                    Files.deleteIfExists(jarFile);
-                    if (!Files.exists(directory)) {
-                        Files.createDirectories(directory);
-                    }
-                    int length = connection.getContentLength();
-                    int prev = -1;
-                    int perc = 0;
-                    int current = 0;
-                    try (OutputStream output = new FileOutputStream(jarFile.toFile())) {
-                        while (current != length) {
-                            output.write(input.read());
-                            current += 1;
-                            perc = (int) ((current * 10D) / length);
-                            if (prev != perc) {
-                                prev = perc;
-                                System.out.println("Updating vCompat... (" + current + " / " + length + ")");
-                            }
-                        }
-                    }
-                }
-                connection.disconnect();
-                setState(State.SUCCESS);
-                System.out.println("Updated vCompat successfully!");
-                write.lock();
-                try {
-                    exactVersion = version;
-                } finally {
-                    write.unlock();
-                }
-            } catch (IOException exp) {
-                setFailed(exp);
-                updateAll();
+            if (!start) {
+                future.complete(current);
                 return;
             }
-            loadCompatLib();
-            updateAll();
-        });
-        executor.submit(() -> executor.shutdown());
-    }
-
-    private String getAssetUrl(String version) {
-        try {
-            Request request = new Request(RequestType.GET).header("Accept", "application/vnd.github.v3+json");
-            if (authenticator != null) {
-                authenticator.authenticate(request);
-            }
-            Response response = request.execute(String.format(GITHUB_RELEASE, 'v' + version), StandardContentType.JSON);
-            if (response.getCode() != 200) {
-                return null;
+            ArrayList<Artifact> pending = new ArrayList<>();
+            Authenticator authenticator;
+            read.lock();
+            try {
+                pending.add(compat.toBuilder().rule(VersionRule.major(demand.getVersions())).build());
+                pending.addAll(artifacts.values());
+                authenticator = this.authenticator;
+            } finally {
+                read.unlock();
             }
-            JsonObject object = (JsonObject) response.getResponseAsJson();
-            JsonArray array = (JsonArray) object.get("assets");
-            for (JsonValue<?> value : array) {
-                JsonObject asset = (JsonObject) value;
-                String name = (String) asset.get("name").getValue();
-                if (name.startsWith("vcompat") && name.endsWith(".jar")) {
-                    return (String) asset.get("browser_download_url").getValue();
+            new UpdatePass(scheduler, authenticator).run(pending).whenComplete((results, error) -> {
+                if (error != null) {
+                    setFailed(future, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                } else {
+                    apply(results, future);
                 }
-            }
-            return null;
-        } catch (IOException exp) {
-            setFailed(exp);
-            updateAll();
-            return null;
-        }
-    }
-
-    private void loadCompatLib() {
-        if (urlClassLoader != null) {
+                future.complete(getState());
+            });
             return;
-        }
-        Path current;
-        read.lock();
-        try {
-            current = file;
-        } finally {
-            read.unlock();
-        }
-        WrappedURLClassLoader classLoader = new WrappedURLClassLoader(findHighestURLClassLoader());
-        try {
-            classLoader.addFile(current.toString());
         } catch (Throwable e) {
-            setFailed(e);
-            return;
+            setFailed(future, e);
         }
+        future.complete(getState());
     }
 
-    private URLClassLoader findHighestURLClassLoader() {
-        ClassLoader loader = getClass().getClassLoader();
-        URLClassLoader urlLoader = null;
-        while (loader != null) {
-            if (loader instanceof URLClassLoader) {
-                urlLoader = (URLClassLoader) loader;
+    private void setFailed(CompletableFuture<State> future, Throwable exp) {
+        write.lock();
+        try {
+            if (update.get() != future) {
+                return;
             }
-            loader = loader.getParent();
+            state = State.FAILED;
+            reason = Reason.UNKNOWN;
+            message = exp.getMessage();
+            exception = exp;
+        } finally {
+            write.unlock();
         }
-        return urlLoader;
     }
 
-    private int readCurrentVersion() {
-        File jarFile;
-        read.lock();
-        try {
-            jarFile = file.toFile();
-        } finally {
-            read.unlock();
-        }
-        if (!jarFile.exists()) {
-            return 0;
-        }
-        try (JarFile jar = new JarFile(jarFile)) {
-            JarEntry entry = jar.getJarEntry("META-INF/maven/net.sourcewriters.minecraft/vcompat/pom.properties");
-            if (entry == null) {
-                return 0;
+    private void apply(List<ArtifactResult> results, CompletableFuture<State> future) {
+        ArtifactResult failure = null;
+        ArrayList<ArtifactResult> loaded = new ArrayList<>(results.size());
+        for (ArtifactResult result : results) {
+            if (result.getState() == State.SUCCESS && result.getVersion() != null) {
+                loaded.add(result);
+                continue;
             }
-            int version = 0;
-            String line;
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(jar.getInputStream(entry)))) {
-                while ((line = reader.readLine()) != null) {
-                    if (!line.contains("=")) {
-                        continue;
-                    }
-                    String[] parts = line.split("=", 2);
-                    if (parts[0].equals("version")) {
-                        line = parts[1];
-                        version = Integer.valueOf(parts[1].split("\\.", 2)[0]);
-                        break;
-                    }
-                }
+            if (result.getArtifact().isOptional()) {
+                System.out.println("Skipping optional artifact '" + result.getArtifact().getId() + "'... (" + result.getMessage() + ")");
+                continue;
             }
-            write.lock();
-            try {
-                exactVersion = line;
-            } finally {
-                write.unlock();
+            if (failure == null) {
+                failure = result;
             }
-            return version;
-        } catch (IOException exp) {
-            setFailed(exp);
-            return -1;
         }
-    }
-
-    private boolean readGithubVersion() {
-        Request request = new Request(RequestType.GET).modifyUrl(true).header("Accept", "application/vnd.github.v3+json");
-        if (authenticator != null) {
-            authenticator.authenticate(request);
-        }
-        int requested = getRequested(false);
-        int previous = 0;
-        int page = 0;
-        boolean found = false;
+        write.lock();
         try {
-            while (requested != previous && !found) {
-                Response response = request.clearParameters().parameter("per_page", "40").parameter("page", new JsonInteger(page++))
-                    .modifyUrl(true).execute(GITHUB_TAGS, StandardContentType.URL_ENCODED);
-                if (response.getCode() == 404) {
-                    previous = requested;
-                    requested = getRequested(true);
-                    continue;
-                }
-                JsonValue<?> rawValue = response.getResponseAsJson();
-                if (response.getCode() == 403) {
-                    setFailed(new IllegalStateException((String) ((JsonObject) rawValue).get("message").getValue()));
-                    return false;
-                }
-                JsonArray array = (JsonArray) rawValue;
-                if (array.isEmpty()) {
-                    previous = requested;
-                    requested = getRequested(true);
-                    continue;
-                }
-                for (JsonValue<?> value : array) {
-                    if (value.getType() != ValueType.OBJECT) {
-                        continue;
-                    }
-                    JsonObject object = (JsonObject) value;
-                    if (!object.has("name", ValueType.STRING)) {
-                        continue;
-                    }
-                    String version = ((String) object.get("name").getValue()).substring(1);
-                    if (requested == Integer.valueOf(version.split("\\.", 2)[0])) {
-                        write.lock();
-                        try {
-                            githubVersion = version;
-                        } finally {
-                            write.unlock();
-                        }
-                        found = true;
-                        break;
-                    }
-                }
+            if (update.get() != future) {
+                // The last app stopped while this pass was running
+                return;
             }
-            if (!found) {
-                if (getVersion() == 0) {
-                    setFailed(new IOException("Failed to find compatible version on Github!"));
-                }
-                return false;
+            installed.clear();
+            for (ArtifactResult result : loaded) {
+                installed.put(result.getArtifact().getId(), result.getVersion());
             }
-            setVersion(requested);
-        } catch (SocketTimeoutException timeout) {
-            setNoConnection();
-            return false;
-        } catch (IOException exp) {
-            setFailed(exp);
-            return false;
+            if (failure != null) {
+                state = State.FAILED;
+                reason = failure.getReason();
+                message = failure.getMessage();
+                exception = failure.getException();
+                return;
+            }
+            // vCompat is always the first artifact of a pass
+            version = major(results.get(0).getVersion());
+            state = State.SUCCESS;
+        } finally {
+            write.unlock();
         }
-        return true;
+        loadCompatLib(loaded, future);
     }
 
-    private int getRequested(boolean next) {
-        int tmp;
+    private void loadCompatLib(List<ArtifactResult> results, CompletableFuture<State> future) {
+        ArrayList<Path> files = new ArrayList<>(results.size());
+        for (ArtifactResult result : results) {
+            files.add(result.getArtifact().getFile());
+        }
+        LoaderMode mode;
         read.lock();
         try {
-            tmp = requested;
-            if (!next) {
-                return tmp;
-            }
-            int nextLowest = tmp;
-            for (CompatApp app : apps.values()) {
-                int version = app.getTargetVersion();
-                if (version > nextLowest && version < tmp) {
-                    nextLowest = version;
-                }
+            if (update.get() != future) {
+                return;
             }
-            tmp = nextLowest;
+            mode = loaderMode;
         } finally {
             read.unlock();
         }
-        write.lock();
+        // A pass only starts after shutdown() released the previous loader, every pass loads into a new one
+        ClassLoader loader = null;
         try {
-            requested = tmp;
-        } finally {
-            write.unlock();
+            if (mode == LoaderMode.MAPPED) {
+                try {
+                    loader = new MappedJarClassLoader(files, getClass().getClassLoader(), unsafe);
+                } catch (IOException exp) {
+                    // Jar layout that can't be mapped (e.g. zip64), use a regular isolated loader
+                    loader = new CompatClassLoader(files, getClass().getClassLoader());
+                }
+            } else if (mode == LoaderMode.ISOLATED) {
+                loader = new CompatClassLoader(files, getClass().getClassLoader());
+            }
+        } catch (Throwable e) {
+            setFailed(future, e);
+            return;
         }
-        return tmp;
-    }
-
-    private boolean isUpToDate() {
-        read.lock();
+        boolean current;
+        write.lock();
         try {
-            if (githubVersion == null) {
-                return true;
+            current = update.get() == future;
+            if (current) {
+                if (loader == null) {
+                    // Injection can't be undone, so it happens under the lock that shutdown() takes
+                    WrappedURLClassLoader classLoader = new WrappedURLClassLoader(findHighestURLClassLoader());
+                    for (Path file : files) {
+                        classLoader.addFile(file.toString());
+                    }
+                    loader = classLoader.getLoader();
+                }
+                classLoader = loader;
             }
-            return exactVersion != null && compare(githubVersion.split("."), exactVersion.split(".")) != 1;
+        } catch (Throwable e) {
+            setFailed(e);
+            return;
         } finally {
-            read.unlock();
+            write.unlock();
+        }
+        if (!current && loader != null) {
+            // The last app stopped while the loader was created
+            unload(loader);
         }
     }
 
-    private int compare(String[] version1, String[] version2) {
-        for (int i = 0; i < version1.length; i++) {
-            int v1 = parse(version1[i]);
-            int v2 = parse(version2[i]);
-            if (v1 > v2) {
-                return 1;
-            } else if (v1 < v2) {
-                return -1;
+    private URLClassLoader findHighestURLClassLoader() {
+        ClassLoader loader = getClass().getClassLoader();
+        URLClassLoader urlLoader = null;
+        while (loader != null) {
+            if (loader instanceof URLClassLoader) {
+                urlLoader = (URLClassLoader) loader;
             }
+            loader = loader.getParent();
         }
-        return 0;
+        return urlLoader;
     }
 
-    private int parse(String string) {
+    private int major(String version) {
         try {
-            return Integer.parseInt(string);
+            return Integer.parseInt(version.split("\\.", 2)[0]);
         } catch (NumberFormatException nfe) {
             return 0;
         }
     }
 
     private void updateAll() {
+        State state;
+        int version;
+        Reason reason;
+        String message;
+        Throwable exception;
         read.lock();
         try {
-            for (CompatApp app : apps.values()) {
-                if (app.state != AppState.STARTED) {
-                    continue;
-                }
-                if (state == State.FAILED) {
+            state = this.state;
+            version = this.version;
+            reason = this.reason;
+            message = this.message;
+            exception = this.exception;
+        } finally {
+            read.unlock();
+        }
+        if (state != State.SUCCESS && state != State.FAILED) {
+            // A cancelled pass or one that was replaced, the current pass notifies the apps
+            return;
+        }
+        for (CompatApp app : apps.values()) {
+            if (state == State.FAILED) {
+                if (app.transition(AppState.STARTED, AppState.FAILED)) {
                     app.onFailed(reason, message, exception);
-                    app.state = AppState.FAILED;
-                    continue;
                 }
+                continue;
+            }
+            if (app.getTargetVersion() != version) {
+                if (app.transition(AppState.STARTED, AppState.FAILED)) {
+                    app.onFailed(Reason.INCOMPATIBLE,
+                        "The version of vCompat that is installed is incompatible with the app '" + app.getId() + "'!", null);
+                }
+                continue;
+            }
+            if (app.transition(AppState.STARTED, AppState.RUNNING)) {
                 app.onReady();
-                app.state = AppState.RUNNING;
             }
-        } finally {
-            read.unlock();
         }
     }
 
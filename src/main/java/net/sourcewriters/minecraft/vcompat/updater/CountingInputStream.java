@@ -0,0 +1,49 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+final class CountingInputStream extends FilterInputStream {
+
+    private long count = 0;
+
+    public CountingInputStream(InputStream input) {
+        super(input);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        if (value != -1) {
+            count++;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read != -1) {
+            count += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long amount) throws IOException {
+        long skipped = super.skip(amount);
+        count += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+}
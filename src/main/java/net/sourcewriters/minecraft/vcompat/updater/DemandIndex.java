@@ -0,0 +1,69 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+final class DemandIndex {
+
+    /*
+     * The sorted versions are only changed inside the atomic compute of the
+     * version they belong to, so a version is removed together with its last app
+     * and an app that registers concurrently can't end up in a dropped set
+     */
+    private final ConcurrentHashMap<Integer, Set<CompatApp>> apps = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Integer> versions = new ConcurrentSkipListSet<>();
+
+    public void add(CompatApp app) {
+        apps.compute(app.getTargetVersion(), (version, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+                versions.add(version);
+            }
+            set.add(app);
+            return set;
+        });
+    }
+
+    public boolean remove(CompatApp app) {
+        boolean[] removed = new boolean[1];
+        apps.computeIfPresent(app.getTargetVersion(), (version, set) -> {
+            removed[0] = set.remove(app);
+            if (!set.isEmpty()) {
+                return set;
+            }
+            versions.remove(version);
+            return null;
+        });
+        return removed[0];
+    }
+
+    public int getHighest() {
+        Iterator<Integer> iterator = versions.descendingIterator();
+        return iterator.hasNext() ? iterator.next() : 0;
+    }
+
+    public int getCount(int version) {
+        Set<CompatApp> set = apps.get(version);
+        return set == null ? 0 : set.size();
+    }
+
+    public int[] getVersions() {
+        ArrayList<Integer> list = new ArrayList<>(versions.descendingSet());
+        int[] array = new int[list.size()];
+        for (int index = 0; index < array.length; index++) {
+            array[index] = list.get(index);
+        }
+        return array;
+    }
+
+    public List<CompatApp> getApps(int version) {
+        Set<CompatApp> set = apps.get(version);
+        return set == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(set));
+    }
+
+}
@@ -0,0 +1,208 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+final class JarPatcher {
+
+    static final String PATCH_INFO = "META-INF/vcompat-patch.properties";
+    static final String PATCH_REMOVED = "META-INF/vcompat-patch.removed";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private JarPatcher() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static String getPatchName(String jar, String baseVersion) {
+        String name = jar.endsWith(".jar") ? jar.substring(0, jar.length() - 4) : jar;
+        return name + "-from-" + baseVersion + ".patch";
+    }
+
+    public static void apply(Path base, String baseVersion, Path patch, Path target, String targetVersion) throws IOException {
+        try (ZipFile patchZip = new ZipFile(patch.toFile()); ZipFile baseZip = new ZipFile(base.toFile())) {
+            Properties info = new Properties();
+            ZipEntry infoEntry = patchZip.getEntry(PATCH_INFO);
+            if (infoEntry == null) {
+                throw new IOException("Patch is missing '" + PATCH_INFO + "'");
+            }
+            try (InputStream input = patchZip.getInputStream(infoEntry)) {
+                info.load(input);
+            }
+            if (!baseVersion.equals(info.getProperty("from")) || !targetVersion.equals(info.getProperty("to"))) {
+                throw new IOException("Patch doesn't apply to '" + baseVersion + "' -> '" + targetVersion + "'");
+            }
+            String expected = info.getProperty("digest");
+            if (expected == null) {
+                throw new IOException("Patch is missing the target digest");
+            }
+            HashSet<String> removed = new HashSet<>();
+            ZipEntry removedEntry = patchZip.getEntry(PATCH_REMOVED);
+            if (removedEntry != null) {
+                try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(patchZip.getInputStream(removedEntry), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.isEmpty()) {
+                            removed.add(line);
+                        }
+                    }
+                }
+            }
+            MessageDigest digest = newDigest();
+            byte[] buffer = new byte[8192];
+            TreeMap<String, byte[]> hashes = new TreeMap<>();
+            try (ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(target))) {
+                Enumeration<? extends ZipEntry> entries = baseZip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    String name = entry.getName();
+                    if (removed.contains(name) || hashes.containsKey(name)) {
+                        continue;
+                    }
+                    ZipEntry replacement = patchZip.getEntry(name);
+                    if (replacement != null) {
+                        hashes.put(name, copy(patchZip, replacement, output, digest, buffer));
+                        continue;
+                    }
+                    hashes.put(name, copy(baseZip, entry, output, digest, buffer));
+                }
+                entries = patchZip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    String name = entry.getName();
+                    if (name.equals(PATCH_INFO) || name.equals(PATCH_REMOVED) || hashes.containsKey(name)) {
+                        continue;
+                    }
+                    hashes.put(name, copy(patchZip, entry, output, digest, buffer));
+                }
+            }
+            String actual = digest(hashes, digest);
+            if (!expected.equalsIgnoreCase(actual)) {
+                throw new IOException("Patched jar doesn't match the expected digest (" + actual + " != " + expected + ")");
+            }
+        }
+    }
+
+    public static void create(Path base, String baseVersion, Path target, String targetVersion, Path patch) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        TreeMap<String, byte[]> baseHashes = hash(base, digest, buffer);
+        try (ZipFile targetZip = new ZipFile(target.toFile()); ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(patch))) {
+            TreeMap<String, byte[]> hashes = new TreeMap<>();
+            Enumeration<? extends ZipEntry> entries = targetZip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (hashes.containsKey(name)) {
+                    continue;
+                }
+                byte[] hash = hash(targetZip, entry, digest, buffer);
+                hashes.put(name, hash);
+                if (!Arrays.equals(baseHashes.get(name), hash)) {
+                    copy(targetZip, entry, output, digest, buffer);
+                }
+            }
+            StringBuilder removed = new StringBuilder();
+            for (String name : baseHashes.keySet()) {
+                if (!hashes.containsKey(name)) {
+                    removed.append(name).append('\n');
+                }
+            }
+            if (removed.length() != 0) {
+                output.putNextEntry(new ZipEntry(PATCH_REMOVED));
+                output.write(removed.toString().getBytes(StandardCharsets.UTF_8));
+                output.closeEntry();
+            }
+            Properties info = new Properties();
+            info.setProperty("from", baseVersion);
+            info.setProperty("to", targetVersion);
+            info.setProperty("digest", digest(hashes, digest));
+            output.putNextEntry(new ZipEntry(PATCH_INFO));
+            info.store(output, null);
+            output.closeEntry();
+        }
+    }
+
+    private static TreeMap<String, byte[]> hash(Path jar, MessageDigest digest, byte[] buffer) throws IOException {
+        TreeMap<String, byte[]> hashes = new TreeMap<>();
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                hashes.putIfAbsent(entry.getName(), hash(zip, entry, digest, buffer));
+            }
+        }
+        return hashes;
+    }
+
+    private static byte[] hash(ZipFile zip, ZipEntry entry, MessageDigest digest, byte[] buffer) throws IOException {
+        digest.reset();
+        try (InputStream input = zip.getInputStream(entry)) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static byte[] copy(ZipFile zip, ZipEntry entry, ZipOutputStream output, MessageDigest digest, byte[] buffer)
+        throws IOException {
+        ZipEntry copy = new ZipEntry(entry.getName());
+        copy.setTime(entry.getTime());
+        output.putNextEntry(copy);
+        digest.reset();
+        try (InputStream input = zip.getInputStream(entry)) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+                digest.update(buffer, 0, read);
+            }
+        }
+        output.closeEntry();
+        return digest.digest();
+    }
+
+    private static String digest(Map<String, byte[]> hashes, MessageDigest digest) {
+        digest.reset();
+        for (Entry<String, byte[]> entry : hashes.entrySet()) {
+            digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(entry.getValue());
+        }
+        byte[] bytes = digest.digest();
+        char[] chars = new char[bytes.length * 2];
+        for (int index = 0; index < bytes.length; index++) {
+            chars[index * 2] = HEX[(bytes[index] >> 4) & 0xF];
+            chars[index * 2 + 1] = HEX[bytes[index] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+}
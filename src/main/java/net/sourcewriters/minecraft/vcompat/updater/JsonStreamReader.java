@@ -0,0 +1,357 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+final class JsonStreamReader implements Closeable {
+
+    public static enum Token {
+
+        BEGIN_OBJECT,
+        END_OBJECT,
+        BEGIN_ARRAY,
+        END_ARRAY,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT;
+
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private final StringBuilder builder = new StringBuilder();
+
+    private int position = 0;
+    private int limit = 0;
+
+    private int[] stack = new int[16];
+    private int size = 1;
+
+    private Token peeked;
+
+    public JsonStreamReader(Reader reader) {
+        this.reader = reader;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int scope = stack[size - 1];
+        int character;
+        switch (scope) {
+        case EMPTY_ARRAY:
+            stack[size - 1] = NONEMPTY_ARRAY;
+            character = nextClean();
+            if (character == ']') {
+                return peeked = Token.END_ARRAY;
+            }
+            if (character != -1) {
+                position--;
+            }
+            break;
+        case NONEMPTY_ARRAY:
+            character = nextClean();
+            if (character == ']') {
+                return peeked = Token.END_ARRAY;
+            }
+            if (character != ',') {
+                throw syntaxError("Expected ',' or ']'");
+            }
+            break;
+        case EMPTY_OBJECT:
+        case NONEMPTY_OBJECT:
+            character = nextClean();
+            if (character == '}') {
+                return peeked = Token.END_OBJECT;
+            }
+            if (scope == NONEMPTY_OBJECT) {
+                if (character != ',') {
+                    throw syntaxError("Expected ',' or '}'");
+                }
+                character = nextClean();
+            }
+            if (character != '"') {
+                throw syntaxError("Expected name");
+            }
+            stack[size - 1] = DANGLING_NAME;
+            return peeked = Token.NAME;
+        case DANGLING_NAME:
+            if (nextClean() != ':') {
+                throw syntaxError("Expected ':'");
+            }
+            stack[size - 1] = NONEMPTY_OBJECT;
+            break;
+        case EMPTY_DOCUMENT:
+            stack[size - 1] = NONEMPTY_DOCUMENT;
+            break;
+        default:
+            if (nextClean() != -1) {
+                throw syntaxError("Expected end of document");
+            }
+            return peeked = Token.END_DOCUMENT;
+        }
+        character = nextClean();
+        switch (character) {
+        case '{':
+            return peeked = Token.BEGIN_OBJECT;
+        case '[':
+            return peeked = Token.BEGIN_ARRAY;
+        case '"':
+            return peeked = Token.STRING;
+        case -1:
+            throw syntaxError("Unexpected end of document");
+        default:
+            // Literals are only classified here, they are read or skipped once they are consumed
+            position--;
+            if (character == 't' || character == 'f') {
+                return peeked = Token.BOOLEAN;
+            }
+            if (character == 'n') {
+                return peeked = Token.NULL;
+            }
+            if (character == '-' || (character >= '0' && character <= '9')) {
+                return peeked = Token.NUMBER;
+            }
+            throw syntaxError("Unexpected character");
+        }
+    }
+
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        size--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        size--;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.NUMBER || token == Token.BOOLEAN) {
+            peeked = null;
+            String literal = readLiteral();
+            if (token == Token.BOOLEAN && !(literal.equals("true") || literal.equals("false"))) {
+                throw syntaxError("Unexpected literal '" + literal + "'");
+            }
+            return literal;
+        }
+        expect(Token.STRING);
+        return readString();
+    }
+
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            peeked = null;
+            switch (token) {
+            case BEGIN_OBJECT:
+                push(EMPTY_OBJECT);
+                depth++;
+                break;
+            case BEGIN_ARRAY:
+                push(EMPTY_ARRAY);
+                depth++;
+                break;
+            case END_OBJECT:
+            case END_ARRAY:
+                size--;
+                depth--;
+                break;
+            case NAME:
+            case STRING:
+                skipString();
+                break;
+            case NUMBER:
+            case BOOLEAN:
+            case NULL:
+                skipLiteral(token);
+                break;
+            case END_DOCUMENT:
+                return;
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (size == stack.length) {
+            stack = Arrays.copyOf(stack, size * 2);
+        }
+        stack[size++] = scope;
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    private int nextClean() throws IOException {
+        int character;
+        do {
+            character = read();
+        } while (character == ' ' || character == '\n' || character == '\r' || character == '\t');
+        return character;
+    }
+
+    private boolean isLiteralEnd(int character) {
+        return character == -1 || character == ',' || character == ']' || character == '}' || character == ':' || character == ' '
+            || character == '\n' || character == '\r' || character == '\t';
+    }
+
+    private String readLiteral() throws IOException {
+        builder.setLength(0);
+        int character;
+        while (!isLiteralEnd(character = read())) {
+            builder.append((char) character);
+        }
+        if (character != -1) {
+            position--;
+        }
+        return builder.toString();
+    }
+
+    private void skipLiteral(Token token) throws IOException {
+        int character = read();
+        if (token == Token.NUMBER) {
+            while (!isLiteralEnd(character)) {
+                character = read();
+            }
+        } else {
+            String keyword = token == Token.NULL ? "null" : character == 't' ? "true" : "false";
+            for (int index = 1; index < keyword.length(); index++) {
+                if (read() != keyword.charAt(index)) {
+                    throw syntaxError("Unexpected literal, expected '" + keyword + "'");
+                }
+            }
+            character = read();
+            if (!isLiteralEnd(character)) {
+                throw syntaxError("Unexpected literal, expected '" + keyword + "'");
+            }
+        }
+        if (character != -1) {
+            position--;
+        }
+    }
+
+    private String readString() throws IOException {
+        builder.setLength(0);
+        int character;
+        while ((character = read()) != '"') {
+            if (character == -1) {
+                throw syntaxError("Unterminated string");
+            }
+            if (character != '\\') {
+                builder.append((char) character);
+                continue;
+            }
+            character = read();
+            switch (character) {
+            case 'b':
+                builder.append('\b');
+                break;
+            case 'f':
+                builder.append('\f');
+                break;
+            case 'n':
+                builder.append('\n');
+                break;
+            case 'r':
+                builder.append('\r');
+                break;
+            case 't':
+                builder.append('\t');
+                break;
+            case 'u':
+                int value = 0;
+                for (int index = 0; index < 4; index++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit == -1) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                builder.append((char) value);
+                break;
+            case -1:
+                throw syntaxError("Unterminated string");
+            default:
+                builder.append((char) character);
+                break;
+            }
+        }
+        return builder.toString();
+    }
+
+    private void skipString() throws IOException {
+        int character;
+        while ((character = read()) != '"') {
+            if (character == -1) {
+                throw syntaxError("Unterminated string");
+            }
+            if (character == '\\' && read() == -1) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed json: " + message);
+    }
+
+}
@@ -0,0 +1,9 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+public enum LoaderMode {
+
+    INJECTED,
+    ISOLATED,
+    MAPPED;
+
+}
@@ -0,0 +1,371 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import sun.misc.Unsafe;
+
+final class MappedJarClassLoader extends ClassLoader implements Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final String PROTOCOL = "vcompat";
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private static final class Jar {
+
+        private final String url;
+        private final ProtectionDomain domain;
+        private final MappedByteBuffer buffer;
+
+        private Jar(String url, ProtectionDomain domain, MappedByteBuffer buffer) {
+            this.url = url;
+            this.domain = domain;
+            this.buffer = buffer;
+        }
+
+    }
+
+    private static final class Entry {
+
+        private final Jar jar;
+        private final int offset;
+        private final int method;
+        private final int compressed;
+        private final int size;
+
+        private Entry(Jar jar, int offset, int method, int compressed, int size) {
+            this.jar = jar;
+            this.offset = offset;
+            this.method = method;
+            this.compressed = compressed;
+            this.size = size;
+        }
+
+    }
+
+    /*
+     * Resource urls are served from the entry table, 'jar:' urls would open and
+     * cache a JarFile of the mapped jar that outlives close()
+     */
+    private final class EntryHandler extends URLStreamHandler {
+
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+            String file = url.getFile();
+            int index = file.indexOf("!/");
+            if (index == -1) {
+                throw new MalformedURLException("Missing '!/' in " + url);
+            }
+            return new EntryConnection(url, file.substring(index + 2));
+        }
+
+    }
+
+    private final class EntryConnection extends URLConnection {
+
+        private final String name;
+
+        private EntryConnection(URL url, String name) {
+            super(url);
+            this.name = name;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (!connected && getSize(name) == -1) {
+                throw new FileNotFoundException(url.toString());
+            }
+            connected = true;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            InputStream stream = openEntry(name);
+            if (stream == null) {
+                throw new FileNotFoundException(url.toString());
+            }
+            connected = true;
+            return stream;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return getSize(name);
+        }
+
+    }
+
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private final EntryHandler handler = new EntryHandler();
+    private final ArrayList<Jar> jars = new ArrayList<>();
+    private final Lock read, write;
+
+    private final Unsafe unsafe;
+
+    private boolean closed = false;
+
+    public MappedJarClassLoader(List<Path> files, ClassLoader parent, Unsafe unsafe) throws IOException {
+        super("vCompat", parent);
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        read = lock.readLock();
+        write = lock.writeLock();
+        this.unsafe = unsafe;
+        try {
+            for (Path file : files) {
+                map(file);
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void map(Path file) throws IOException {
+        URL url = file.toUri().toURL();
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        Jar jar = new Jar(PROTOCOL + ':' + url.getPath() + "!/",
+            new ProtectionDomain(new CodeSource(url, (CodeSigner[]) null), null, this, null), buffer);
+        jars.add(jar);
+        readEntries(jar);
+    }
+
+    private void readEntries(Jar jar) throws IOException {
+        MappedByteBuffer buffer = jar.buffer;
+        int end = buffer.limit() - 22;
+        int minimum = Math.max(0, end - 0xFFFF);
+        while (end >= minimum && buffer.getInt(end) != END_HEADER) {
+            end--;
+        }
+        if (end < minimum) {
+            throw new IOException("Couldn't find end of central directory");
+        }
+        int amount = Short.toUnsignedInt(buffer.getShort(end + 10));
+        long offset = Integer.toUnsignedLong(buffer.getInt(end + 16));
+        if (amount == 0xFFFF || offset == 0xFFFFFFFFL) {
+            throw new IOException("Zip64 jars are not supported");
+        }
+        int position = (int) offset;
+        ByteBuffer names = buffer.duplicate();
+        byte[] name = new byte[256];
+        for (int index = 0; index < amount; index++) {
+            if (buffer.getInt(position) != CENTRAL_HEADER) {
+                throw new IOException("Invalid central directory header");
+            }
+            int flags = Short.toUnsignedInt(buffer.getShort(position + 8));
+            int method = Short.toUnsignedInt(buffer.getShort(position + 10));
+            long compressed = Integer.toUnsignedLong(buffer.getInt(position + 20));
+            long size = Integer.toUnsignedLong(buffer.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(buffer.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(buffer.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(buffer.getShort(position + 32));
+            long header = Integer.toUnsignedLong(buffer.getInt(position + 42));
+            if (compressed == 0xFFFFFFFFL || size == 0xFFFFFFFFL || header == 0xFFFFFFFFL) {
+                throw new IOException("Zip64 jars are not supported");
+            }
+            if (name.length < nameLength) {
+                name = new byte[nameLength];
+            }
+            names.position(position + 46);
+            names.get(name, 0, nameLength);
+            position += 46 + nameLength + extraLength + commentLength;
+            if ((flags & 1) != 0 || (method != STORED && method != DEFLATED)) {
+                continue;
+            }
+            int local = (int) header;
+            if (buffer.getInt(local) != LOCAL_HEADER) {
+                throw new IOException("Invalid local file header");
+            }
+            int data = local + 30 + Short.toUnsignedInt(buffer.getShort(local + 26)) + Short.toUnsignedInt(buffer.getShort(local + 28));
+            entries.putIfAbsent(new String(name, 0, nameLength, StandardCharsets.UTF_8),
+                new Entry(jar, data, method, (int) compressed, (int) size));
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        read.lock();
+        try {
+            Entry entry = closed ? null : entries.get(name.replace('.', '/') + ".class");
+            if (entry == null) {
+                throw new ClassNotFoundException(name);
+            }
+            int index = name.lastIndexOf('.');
+            if (index != -1) {
+                String packageName = name.substring(0, index);
+                if (getDefinedPackage(packageName) == null) {
+                    try {
+                        definePackage(packageName, null, null, null, null, null, null, null);
+                    } catch (IllegalArgumentException e) {
+                        // Defined concurrently
+                    }
+                }
+            }
+            if (entry.method == STORED) {
+                return defineClass(name, slice(entry), entry.jar.domain);
+            }
+            byte[] bytes = inflate(entry);
+            return defineClass(name, bytes, 0, bytes.length, entry.jar.domain);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        } finally {
+            read.unlock();
+        }
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        read.lock();
+        try {
+            Entry entry = closed ? null : entries.get(name);
+            if (entry == null) {
+                return null;
+            }
+            return new URL(null, entry.jar.url + name, handler);
+        } catch (MalformedURLException e) {
+            return null;
+        } finally {
+            read.unlock();
+        }
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) {
+        URL url = findResource(name);
+        return url == null ? Collections.emptyEnumeration() : Collections.enumeration(Collections.singletonList(url));
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        ClassLoader parent = getParent();
+        if (parent != null) {
+            InputStream stream = parent.getResourceAsStream(name);
+            if (stream != null) {
+                return stream;
+            }
+        }
+        try {
+            return openEntry(name);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private InputStream openEntry(String name) throws IOException {
+        read.lock();
+        try {
+            Entry entry = closed ? null : entries.get(name);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.method == STORED) {
+                byte[] bytes = new byte[entry.size];
+                slice(entry).get(bytes);
+                return new ByteArrayInputStream(bytes);
+            }
+            return new ByteArrayInputStream(inflate(entry));
+        } finally {
+            read.unlock();
+        }
+    }
+
+    private long getSize(String name) {
+        read.lock();
+        try {
+            Entry entry = closed ? null : entries.get(name);
+            return entry == null ? -1 : entry.size;
+        } finally {
+            read.unlock();
+        }
+    }
+
+    private ByteBuffer slice(Entry entry) {
+        ByteBuffer slice = entry.jar.buffer.duplicate();
+        slice.position(entry.offset).limit(entry.offset + entry.compressed);
+        return slice.slice();
+    }
+
+    private byte[] inflate(Entry entry) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(slice(entry));
+            byte[] bytes = new byte[entry.size];
+            int length = 0;
+            while (length < bytes.length) {
+                int read = inflater.inflate(bytes, length, bytes.length - length);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            if (length != bytes.length) {
+                throw new IOException("Entry is truncated (" + length + " / " + bytes.length + ")");
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public void close() {
+        Jar[] mapped;
+        write.lock();
+        try {
+            mapped = jars.toArray(new Jar[jars.size()]);
+            closed = true;
+            jars.clear();
+            entries.clear();
+        } finally {
+            write.unlock();
+        }
+        if (unsafe == null) {
+            return;
+        }
+        for (Jar jar : mapped) {
+            unsafe.invokeCleaner(jar.buffer);
+        }
+    }
+
+}
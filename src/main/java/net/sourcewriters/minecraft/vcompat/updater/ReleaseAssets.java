@@ -0,0 +1,31 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+final class ReleaseAssets {
+
+    private final String jar;
+    private final String compressed;
+    private final String patch;
+
+    ReleaseAssets(String jar, String compressed, String patch) {
+        this.jar = jar;
+        this.compressed = compressed;
+        this.patch = patch;
+    }
+
+    public static String getCompressedName(String jar) {
+        return jar + ".gz";
+    }
+
+    public String getJar() {
+        return jar;
+    }
+
+    public String getCompressed() {
+        return compressed;
+    }
+
+    public String getPatch() {
+        return patch;
+    }
+
+}
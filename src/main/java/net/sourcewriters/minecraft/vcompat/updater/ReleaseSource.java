@@ -0,0 +1,52 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.util.Objects;
+
+public final class ReleaseSource {
+
+    public static final ReleaseSource VCOMPAT = github("SourceWriters/vCompat");
+
+    private static final String GITHUB_API = "https://api.github.com/repos/";
+
+    private final String url;
+
+    private ReleaseSource(String url) {
+        this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    public static ReleaseSource github(String repository) {
+        return of(GITHUB_API + Objects.requireNonNull(repository, "Repository can not be null!"));
+    }
+
+    public static ReleaseSource of(String url) {
+        return new ReleaseSource(Objects.requireNonNull(url, "Url can not be null!"));
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    String getTagsUrl(int page, int amount) {
+        return url + "/tags?per_page=" + amount + "&page=" + page;
+    }
+
+    String getReleaseUrl(String tag) {
+        return url + "/releases/tags/" + tag;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ReleaseSource && ((ReleaseSource) obj).url.equals(url);
+    }
+
+    @Override
+    public int hashCode() {
+        return url.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+
+}
@@ -0,0 +1,630 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import net.sourcewriters.minecraft.vcompat.updater.JsonStreamReader.Token;
+
+final class UpdatePass {
+
+    private static final int TIMEOUT = 10000;
+    private static final int PAGE_SIZE = 40;
+
+    @FunctionalInterface
+    private static interface Fetcher<T> {
+
+        T fetch(String url) throws IOException;
+
+    }
+
+    @FunctionalInterface
+    private static interface ItemReader<T> {
+
+        T read(JsonStreamReader reader) throws IOException;
+
+    }
+
+    /*
+     * A json array that is only read as far as any artifact of the pass needed it,
+     * the remaining response is never parsed
+     */
+    private static final class Listing<T> implements Closeable {
+
+        private final ArrayList<T> items = new ArrayList<>();
+        private final HttpURLConnection connection;
+        private final ItemReader<T> itemReader;
+
+        private JsonStreamReader reader;
+        private IOException failure;
+
+        private Listing(HttpURLConnection connection, JsonStreamReader reader, ItemReader<T> itemReader) {
+            this.connection = connection;
+            this.reader = reader;
+            this.itemReader = itemReader;
+        }
+
+        public synchronized T get(int index) throws IOException {
+            while (items.size() <= index) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (reader == null) {
+                    return null;
+                }
+                try {
+                    if (!reader.hasNext()) {
+                        close();
+                        return null;
+                    }
+                    T item = itemReader.read(reader);
+                    if (item != null) {
+                        items.add(item);
+                    }
+                } catch (IOException exp) {
+                    failure = exp;
+                    close();
+                    throw exp;
+                }
+            }
+            return items.get(index);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignore) {
+                    // Ignore
+                }
+                reader = null;
+            }
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+
+    }
+
+    // Responses are shared by all artifacts of this pass, e.g. artifacts released from the same repository
+    private final ConcurrentHashMap<String, CompletableFuture<Listing<String>>> tags = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Listing<String[]>>> releases = new ConcurrentHashMap<>();
+
+    private final UpdaterScheduler scheduler;
+    private final Authenticator authenticator;
+
+    public UpdatePass(UpdaterScheduler scheduler, Authenticator authenticator) {
+        this.scheduler = scheduler;
+        this.authenticator = authenticator;
+    }
+
+    public CompletableFuture<List<ArtifactResult>> run(List<Artifact> artifacts) {
+        ArrayList<CompletableFuture<ArtifactResult>> futures = new ArrayList<>(artifacts.size());
+        for (Artifact artifact : artifacts) {
+            futures.add(update(artifact));
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply(ignore -> {
+            List<ArtifactResult> results = new ArrayList<>(futures.size());
+            for (CompletableFuture<ArtifactResult> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        }).whenComplete((results, error) -> {
+            close(tags);
+            close(releases);
+        });
+    }
+
+    private void close(ConcurrentHashMap<String, ? extends CompletableFuture<? extends Listing<?>>> cache) {
+        for (CompletableFuture<? extends Listing<?>> future : cache.values()) {
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                future.join().close();
+            }
+        }
+    }
+
+    private CompletableFuture<ArtifactResult> update(Artifact artifact) {
+        CompletableFuture<String> local = scheduler.supply(() -> readLocalVersion(artifact));
+        CompletableFuture<String> remote = scheduler.supply(() -> findRelease(artifact));
+        return CompletableFuture.allOf(local, remote).handleAsync((ignore, error) -> {
+            try {
+                return resolve(artifact, local, remote);
+            } catch (Throwable e) {
+                return ArtifactResult.failed(artifact, e);
+            }
+        }, scheduler);
+    }
+
+    private ArtifactResult resolve(Artifact artifact, CompletableFuture<String> local, CompletableFuture<String> remote) {
+        String installed;
+        try {
+            installed = local.join();
+        } catch (CompletionException e) {
+            return ArtifactResult.failed(artifact, e.getCause());
+        }
+        String tag;
+        try {
+            tag = remote.join();
+        } catch (CompletionException e) {
+            if (installed != null) {
+                // Keep using the installed version if Github isn't reachable
+                return ArtifactResult.success(artifact, installed);
+            }
+            return ArtifactResult.failed(artifact, e.getCause());
+        }
+        if (tag == null) {
+            if (installed != null) {
+                return ArtifactResult.success(artifact, installed);
+            }
+            return ArtifactResult.failed(artifact,
+                new IOException("Failed to find compatible version of " + artifact.getId() + " on Github!"));
+        }
+        String version = getVersion(tag);
+        if (isUpToDate(artifact.getRule(), installed, version)) {
+            return ArtifactResult.success(artifact, installed);
+        }
+        return download(artifact, installed, tag, version);
+    }
+
+    private ArtifactResult download(Artifact artifact, String installed, String tag, String version) {
+        Path file = artifact.getFile();
+        ReleaseAssets assets;
+        try {
+            assets = getAssets(artifact, tag, installed);
+        } catch (IOException | RuntimeException exp) {
+            if (installed != null) {
+                return ArtifactResult.success(artifact, installed);
+            }
+            return ArtifactResult.failed(artifact, exp);
+        }
+        if (assets.getJar() == null) {
+            if (installed != null) {
+                return ArtifactResult.success(artifact, installed);
+            }
+            return ArtifactResult.failed(artifact, new NullPointerException("Couldn't obtain release jar of " + artifact.getId()));
+        }
+        Path download = null;
+        try {
+            Files.createDirectories(file.getParent());
+            // A pass that outlived shutdown may still be downloading next to the pass of the next app
+            download = Files.createTempFile(file.getParent(), file.getFileName() + ".", ".download");
+            if (assets.getPatch() == null || !patch(artifact, assets.getPatch(), installed, download, version)) {
+                if (assets.getCompressed() == null || !downloadCompressed(artifact, assets.getCompressed(), download)) {
+                    download(artifact, assets.getJar(), download, false);
+                }
+            }
+            checkCancelled(artifact);
+            Files.move(download, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (CancellationException exp) {
+            return ArtifactResult.failed(artifact, exp);
+        } catch (IOException exp) {
+            if (installed != null) {
+                // The installed jar is only replaced once the download is complete
+                System.out.println(
+                    "Failed to update " + artifact.getId() + ", keeping version " + installed + "... (" + exp.getMessage() + ")");
+                return ArtifactResult.success(artifact, installed);
+            }
+            return ArtifactResult.failed(artifact, exp);
+        } finally {
+            if (download != null) {
+                try {
+                    Files.deleteIfExists(download);
+                } catch (IOException ignore) {
+                    // Ignore
+                }
+            }
+        }
+        System.out.println("Updated " + artifact.getId() + " successfully!");
+        return ArtifactResult.success(artifact, version);
+    }
+
+    private boolean patch(Artifact artifact, String url, String installed, Path target, String version) {
+        Path file = artifact.getFile();
+        Path patch = null;
+        try {
+            patch = Files.createTempFile(target.getParent(), file.getFileName() + ".", ".patch");
+            download(artifact, url, patch, false);
+            JarPatcher.apply(file, installed, patch, target, version);
+            return true;
+        } catch (IOException exp) {
+            System.out.println("Failed to patch " + artifact.getId() + ", downloading full release instead... (" + exp.getMessage() + ")");
+            return false;
+        } finally {
+            if (patch != null) {
+                try {
+                    Files.deleteIfExists(patch);
+                } catch (IOException ignore) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private boolean downloadCompressed(Artifact artifact, String url, Path target) {
+        try {
+            download(artifact, url, target, true);
+            return true;
+        } catch (IOException exp) {
+            System.out.println(
+                "Failed to download compressed " + artifact.getId() + ", downloading plain jar instead... (" + exp.getMessage() + ")");
+            return false;
+        }
+    }
+
+    private void download(Artifact artifact, String url, Path target, boolean gzip) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        if (authenticator != null) {
+            authenticator.authenticate(connection);
+        }
+        try (CountingInputStream counter = new CountingInputStream(connection.getInputStream());
+            InputStream input = decode(counter, connection.getContentEncoding(), gzip);
+            OutputStream output = Files.newOutputStream(target)) {
+            long length = connection.getContentLengthLong();
+            long current = 0;
+            int prev = -1;
+            int perc = 0;
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                checkCancelled(artifact);
+                output.write(buffer, 0, read);
+                current = counter.getCount();
+                if (length <= 0) {
+                    continue;
+                }
+                perc = (int) ((current * 10D) / length);
+                if (prev != perc) {
+                    prev = perc;
+                    System.out.println("Updating " + artifact.getId() + "... (" + current + " / " + length + ")");
+                }
+            }
+            if (length > 0 && current != length) {
+                throw new IOException("Download of '" + url + "' ended early (" + current + " / " + length + ")");
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /*
+     * The scheduler of a pass is closed once the last app stopped, its downloads
+     * stop and never replace the installed jar
+     */
+    private void checkCancelled(Artifact artifact) {
+        if (scheduler.isClosed()) {
+            throw new CancellationException("Update of " + artifact.getId() + " was cancelled");
+        }
+    }
+
+    private InputStream decode(InputStream input, String encoding, boolean gzip) throws IOException {
+        if (encoding != null) {
+            encoding = encoding.trim().toLowerCase(Locale.ROOT);
+            if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+                input = new GZIPInputStream(input, 8192);
+            } else if (encoding.equals("deflate")) {
+                input = new InflaterInputStream(input);
+            } else if (!encoding.equals("identity")) {
+                throw new IOException("Unsupported content encoding '" + encoding + "'");
+            }
+        }
+        return gzip ? new GZIPInputStream(input, 8192) : input;
+    }
+
+    private ReleaseAssets getAssets(Artifact artifact, String tag, String installed) throws IOException {
+        Listing<String[]> assets = fetch(releases, artifact.getSource().getReleaseUrl(tag), this::openRelease);
+        // Variants are named after the jar, so the ones listed before it are remembered
+        HashMap<String, String> variants = new HashMap<>();
+        String jar = null;
+        String compressedName = null;
+        String patchName = null;
+        String compressed = null;
+        String patch = null;
+        String previous = null;
+        boolean sorted = true;
+        String[] asset;
+        for (int index = 0; (jar == null || compressed == null || (installed != null && patch == null))
+            && (asset = assets.get(index)) != null; index++) {
+            sorted &= previous == null || previous.compareTo(asset[0]) <= 0;
+            previous = asset[0];
+            if (jar == null) {
+                if (artifact.isJar(asset[0])) {
+                    jar = asset[1];
+                    compressedName = ReleaseAssets.getCompressedName(asset[0]);
+                    patchName = installed == null ? null : JarPatcher.getPatchName(asset[0], installed);
+                    compressed = variants.get(compressedName);
+                    patch = patchName == null ? null : variants.get(patchName);
+                } else if (asset[0].endsWith(".gz") || asset[0].endsWith(".patch")) {
+                    variants.putIfAbsent(asset[0], asset[1]);
+                }
+                continue;
+            }
+            if (compressed == null && asset[0].equals(compressedName)) {
+                compressed = asset[1];
+            } else if (patch == null && asset[0].equals(patchName)) {
+                patch = asset[1];
+            } else if (sorted && isPast(asset[0], compressed == null ? compressedName : null)
+                && isPast(asset[0], patch == null ? patchName : null)) {
+                /*
+                 * Listed by name so far and past every missing variant, which a release
+                 * without variants reaches right after the jar. Listings in any other
+                 * order are read until the end.
+                 */
+                break;
+            }
+        }
+        return new ReleaseAssets(jar, compressed, patch);
+    }
+
+    private boolean isPast(String name, String missing) {
+        return missing == null || name.compareTo(missing) > 0;
+    }
+
+    private String readLocalVersion(Artifact artifact) throws IOException {
+        Path file = artifact.getFile();
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (JarFile jar = new JarFile(file.toFile())) {
+            JarEntry entry = artifact.getMetadata() == null ? findMetadata(jar) : jar.getJarEntry(artifact.getMetadata());
+            if (entry == null) {
+                return null;
+            }
+            Properties properties = new Properties();
+            try (InputStream input = jar.getInputStream(entry)) {
+                properties.load(input);
+            }
+            return properties.getProperty("version");
+        }
+    }
+
+    private JarEntry findMetadata(JarFile jar) {
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            if (entry.getName().startsWith("META-INF/maven/") && entry.getName().endsWith("/pom.properties")) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private String findRelease(Artifact artifact) throws IOException {
+        VersionRule rule = artifact.getRule();
+        String best = null;
+        int bestRank = -1;
+        for (int page = 1;; page++) {
+            Listing<String> names = fetch(tags, artifact.getSource().getTagsUrl(page, PAGE_SIZE), this::openTags);
+            String name = names.get(0);
+            if (name == null) {
+                return best;
+            }
+            for (int index = 1; name != null; name = names.get(index++)) {
+                int rank = rule.rank(getVersion(name));
+                if (rank < 0 || (best != null && rank >= bestRank)) {
+                    continue;
+                }
+                best = name;
+                bestRank = rank;
+                if (rank == 0) {
+                    return best;
+                }
+            }
+        }
+    }
+
+    private <T> T fetch(ConcurrentHashMap<String, CompletableFuture<T>> cache, String url, Fetcher<T> fetcher) throws IOException {
+        CompletableFuture<T> created = new CompletableFuture<>();
+        CompletableFuture<T> future = cache.putIfAbsent(url, created);
+        if (future == null) {
+            // Fetched on this thread, so other artifacts only ever wait on a running request
+            future = created;
+            try {
+                created.complete(fetcher.fetch(url));
+            } catch (Throwable e) {
+                created.completeExceptionally(e);
+            }
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private Listing<String> openTags(String url) throws IOException {
+        HttpURLConnection connection = openConnection(url);
+        int code = connection.getResponseCode();
+        if (code == 404) {
+            return new Listing<>(connection, null, null);
+        }
+        if (code == 403) {
+            throw new IllegalStateException(readErrorMessage(connection));
+        }
+        JsonStreamReader reader = openJson(connection.getInputStream());
+        Listing<String> listing = new Listing<>(connection, reader, this::readTagName);
+        try {
+            reader.beginArray();
+        } catch (IOException exp) {
+            listing.close();
+            throw exp;
+        }
+        return listing;
+    }
+
+    private Listing<String[]> openRelease(String url) throws IOException {
+        HttpURLConnection connection = openConnection(url);
+        if (connection.getResponseCode() != 200) {
+            return new Listing<>(connection, null, null);
+        }
+        JsonStreamReader reader = openJson(connection.getInputStream());
+        Listing<String[]> listing = new Listing<>(connection, reader, this::readAsset);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("assets") && reader.peek() == Token.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    return listing;
+                }
+                reader.skipValue();
+            }
+        } catch (IOException exp) {
+            listing.close();
+            throw exp;
+        }
+        // Release without assets
+        listing.close();
+        return new Listing<>(null, null, null);
+    }
+
+    private HttpURLConnection openConnection(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setRequestProperty("Accept", "application/vnd.github.v3+json");
+        if (authenticator != null) {
+            authenticator.authenticate(connection);
+        }
+        return connection;
+    }
+
+    private JsonStreamReader openJson(InputStream stream) {
+        return new JsonStreamReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    }
+
+    private String readErrorMessage(HttpURLConnection connection) throws IOException {
+        InputStream stream = connection.getErrorStream();
+        if (stream == null) {
+            return "Github responded with " + connection.getResponseCode();
+        }
+        try (JsonStreamReader reader = openJson(stream)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("message") && reader.peek() == Token.STRING) {
+                    return reader.nextString();
+                }
+                reader.skipValue();
+            }
+        }
+        return "Github responded with " + connection.getResponseCode();
+    }
+
+    private String readTagName(JsonStreamReader reader) throws IOException {
+        if (reader.peek() != Token.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        String name = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (name == null && key.equals("name") && reader.peek() == Token.STRING) {
+                name = reader.nextString();
+                continue;
+            }
+            reader.skipValue();
+        }
+        reader.endObject();
+        return name == null || name.isEmpty() ? null : name;
+    }
+
+    private String[] readAsset(JsonStreamReader reader) throws IOException {
+        if (reader.peek() != Token.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        String name = null;
+        String url = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (reader.peek() != Token.STRING || !(key.equals("name") || key.equals("browser_download_url"))) {
+                reader.skipValue();
+                continue;
+            }
+            if (key.equals("name")) {
+                name = reader.nextString();
+            } else {
+                url = reader.nextString();
+            }
+        }
+        reader.endObject();
+        return name == null || url == null ? null : new String[] {
+            name,
+            url
+        };
+    }
+
+    private String getVersion(String tag) {
+        return tag.startsWith("v") ? tag.substring(1) : tag;
+    }
+
+    private boolean isUpToDate(VersionRule rule, String installed, String version) {
+        if (installed == null) {
+            return false;
+        }
+        int installedRank = rule.rank(installed);
+        int rank = rule.rank(version);
+        if (installedRank < 0 || installedRank > rank) {
+            return false;
+        }
+        return installedRank < rank || compare(version.split("\\."), installed.split("\\.")) != 1;
+    }
+
+    private int compare(String[] version1, String[] version2) {
+        for (int i = 0; i < Math.max(version1.length, version2.length); i++) {
+            int v1 = i < version1.length ? parse(version1[i]) : 0;
+            int v2 = i < version2.length ? parse(version2[i]) : 0;
+            if (v1 > v2) {
+                return 1;
+            } else if (v1 < v2) {
+                return -1;
+            }
+        }
+        return 0;
+    }
+
+    private int parse(String string) {
+        try {
+            return Integer.parseInt(string);
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class UpdaterScheduler implements Executor {
+
+    private static final String THREAD_NAME = "vCompat-Updater-";
+    private static final int POOL_SIZE = 4;
+
+    private static final ThreadFactory VIRTUAL_FACTORY = findVirtualFactory();
+
+    private static ThreadFactory findVirtualFactory() {
+        try {
+            Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Class<?> virtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(virtualClass));
+            MethodHandle name = lookup.findVirtual(virtualClass, "name", MethodType.methodType(virtualClass, String.class, long.class));
+            MethodHandle factory = lookup.findVirtual(builderClass, "factory", MethodType.methodType(ThreadFactory.class));
+            // Throws UnsupportedOperationException if virtual threads are a disabled preview feature
+            return (ThreadFactory) factory.invoke(name.invoke(ofVirtual.invoke(), THREAD_NAME, 0L));
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService executor;
+    private volatile boolean closed = false;
+
+    private synchronized ExecutorService executor() {
+        if (closed) {
+            throw new RejectedExecutionException("The updater scheduler is shut down");
+        }
+        if (executor != null) {
+            return executor;
+        }
+        if (VIRTUAL_FACTORY != null) {
+            try {
+                return executor = (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class, ThreadFactory.class))
+                    .invoke(VIRTUAL_FACTORY);
+            } catch (Throwable e) {
+                // Fall back to platform threads
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return executor = pool;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor().execute(command);
+    }
+
+    public CompletableFuture<Void> run(Runnable runnable) {
+        return supply(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    public <T> CompletableFuture<T> supply(Callable<T> callable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            execute(() -> {
+                try {
+                    future.complete(callable.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return track(future);
+    }
+
+    public <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+        pending.add(future);
+        future.whenComplete((result, error) -> pending.remove(future));
+        if (closed) {
+            // Tracked concurrently to shutdown()
+            future.cancel(false);
+        }
+        return future;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!pending.isEmpty()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).get(remaining, TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                // Failures are reported to the apps, we only wait for completion
+            } catch (TimeoutException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Closes this scheduler for good, new work is rejected and pending work is
+     * cancelled. Running tasks finish, but their results are discarded and
+     * downloads of an update pass stop before they replace any file.
+     */
+    public void shutdown() {
+        ExecutorService service;
+        synchronized (this) {
+            closed = true;
+            service = executor;
+            executor = null;
+        }
+        if (service != null) {
+            service.shutdown();
+        }
+        for (CompletableFuture<?> future : pending.toArray(CompletableFuture[]::new)) {
+            future.cancel(false);
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.util.Objects;
+
+@FunctionalInterface
+public interface VersionRule {
+
+    /*
+     * Returns the preference of a version, 0 being the best possible match and
+     * -1 if the version is not accepted at all
+     */
+    int rank(String version);
+
+    static VersionRule latest() {
+        return version -> 0;
+    }
+
+    static VersionRule exact(String expected) {
+        Objects.requireNonNull(expected, "Version can not be null!");
+        return version -> expected.equals(version) ? 0 : -1;
+    }
+
+    static VersionRule major(int... majors) {
+        int[] preferred = majors.clone();
+        return version -> {
+            int major = parseMajor(version);
+            for (int index = 0; index < preferred.length; index++) {
+                if (preferred[index] == major) {
+                    return index;
+                }
+            }
+            return -1;
+        };
+    }
+
+    private static int parseMajor(String version) {
+        try {
+            return Integer.parseInt(version.split("\\.", 2)[0]);
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+
+}
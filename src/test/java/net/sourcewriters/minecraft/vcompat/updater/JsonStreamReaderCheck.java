@@ -0,0 +1,130 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import net.sourcewriters.minecraft.vcompat.updater.JsonStreamReader.Token;
+
+/*
+ * Checks the JsonStreamReader against the shapes the update pass reads and skips.
+ *
+ * Run with 'mvn test-compile' and
+ * 'java -cp target/classes:target/test-classes net.sourcewriters.minecraft.vcompat.updater.JsonStreamReaderCheck'
+ *
+ * Exits with an AssertionError on the first failed check.
+ */
+public final class JsonStreamReaderCheck {
+
+    @FunctionalInterface
+    private static interface Check {
+
+        void run(JsonStreamReader reader) throws IOException;
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        check("escapes", "{\"a\":\"x\\n\\\"\\\\\\/\\u00e9\\t\"}", reader -> {
+            reader.beginObject();
+            equal("a", reader.nextName());
+            equal("x\n\"\\/\u00e9\t", reader.nextString());
+            reader.endObject();
+        });
+        check("nested skip", "{\"skip\":{\"a\":[1,-2.5e3,true,false,null,{\"b\":\"c\\\"}]\"}],\"d\":{}},\"keep\":\"v\"}", reader -> {
+            reader.beginObject();
+            equal("skip", reader.nextName());
+            reader.skipValue();
+            equal("keep", reader.nextName());
+            equal("v", reader.nextString());
+            equal(false, reader.hasNext());
+            reader.endObject();
+        });
+        check("skipped literals", "[ 12 , true,false ,null,-0.5E+2 ]", reader -> {
+            reader.beginArray();
+            for (Token token : new Token[] { Token.NUMBER, Token.BOOLEAN, Token.BOOLEAN, Token.NULL, Token.NUMBER }) {
+                equal(token, reader.peek());
+                reader.skipValue();
+            }
+            equal(false, reader.hasNext());
+            reader.endArray();
+        });
+        check("read literals", "{\"n\":12,\"t\":true,\"f\":false}", reader -> {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                equal(name.equals("n") ? "12" : name.equals("t") ? "true" : "false", reader.nextString());
+            }
+            reader.endObject();
+        });
+        check("empty containers", "[{},[],{\"a\":[]},[{}]]", reader -> {
+            reader.beginArray();
+            reader.beginObject();
+            equal(false, reader.hasNext());
+            reader.endObject();
+            reader.beginArray();
+            equal(false, reader.hasNext());
+            reader.endArray();
+            reader.skipValue();
+            reader.skipValue();
+            equal(false, reader.hasNext());
+            reader.endArray();
+        });
+        check("top level literal", " 42 ", reader -> {
+            equal(Token.NUMBER, reader.peek());
+            reader.skipValue();
+        });
+        StringBuilder padding = new StringBuilder();
+        for (int index = 0; index < 8190; index++) {
+            padding.append('p');
+        }
+        check("buffer boundary", "[\"" + padding + "\",123456,true]", reader -> {
+            reader.beginArray();
+            equal(padding.toString(), reader.nextString());
+            equal("123456", reader.nextString());
+            reader.skipValue();
+            reader.endArray();
+        });
+        fails("broken keyword", "[tru]", JsonStreamReader::skipValue);
+        fails("broken null", "[nul]", JsonStreamReader::skipValue);
+        fails("null as string", "[null]", JsonStreamReader::nextString);
+        fails("unterminated string", "[\"abc", JsonStreamReader::skipValue);
+        fails("unexpected character", "[x]", JsonStreamReader::skipValue);
+        System.out.println("All checks passed");
+    }
+
+    private static JsonStreamReader open(String json) throws IOException {
+        JsonStreamReader reader = new JsonStreamReader(new StringReader(json));
+        if (reader.peek() == Token.BEGIN_ARRAY) {
+            reader.beginArray();
+        }
+        return reader;
+    }
+
+    private static void check(String name, String json, Check check) throws IOException {
+        try (JsonStreamReader reader = new JsonStreamReader(new StringReader(json))) {
+            check.run(reader);
+            // Every check consumes the whole document
+            equal(Token.END_DOCUMENT, reader.peek());
+            equal(false, reader.hasNext());
+        } catch (AssertionError | IOException exp) {
+            throw new AssertionError(name + ": " + exp.getMessage(), exp);
+        }
+        System.out.println("Passed " + name);
+    }
+
+    private static void fails(String name, String json, Check check) throws IOException {
+        try (JsonStreamReader reader = open(json)) {
+            check.run(reader);
+        } catch (IOException exp) {
+            System.out.println("Passed " + name + " (" + exp.getMessage() + ")");
+            return;
+        }
+        throw new AssertionError(name + ": malformed json was accepted");
+    }
+
+    private static void equal(Object expected, Object actual) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError("expected '" + expected + "' but was '" + actual + "'");
+        }
+    }
+
+}
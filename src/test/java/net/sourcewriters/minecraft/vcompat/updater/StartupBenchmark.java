@@ -0,0 +1,452 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * Measures the time from CompatApp.start() until an app has loaded a sample of
+ * classes from the compat loader, against a local stand-in for the GitHub api.
+ *
+ * Run with 'mvn test-compile' and
+ * 'java -cp target/classes:target/test-classes net.sourcewriters.minecraft.vcompat.updater.StartupBenchmark'
+ *
+ * Options (system properties):
+ *  bench.scenarios  cold,warm,patch,gzip   which boots to measure
+ *  bench.iterations 5                      runs per scenario
+ *  bench.apps       50                     apps started in parallel per run
+ *  bench.latency    50                     milliseconds added to every request
+ *  bench.bandwidth  1024                   KiB/s per connection, 0 for unlimited
+ *  bench.pages      3                      tag pages before the wanted tag is listed
+ *  bench.rateLimit  0                      every n-th api request is answered with 403, 0 to disable
+ *  bench.drop       0                      chance (0-1) that a connection is dropped without response
+ *  bench.classes    500                    classes in the generated vCompat jar
+ *  bench.companions 0                      companion artifacts released next to vCompat
+ *  bench.loader     isolated               injected, isolated or mapped
+ *  bench.sample     20                     classes every app loads before it counts as ready
+ */
+public final class StartupBenchmark {
+
+    private static final String REPOSITORY = "/repos/stub/vCompat";
+    private static final String OLD_VERSION = "1.0.0";
+    private static final String NEW_VERSION = "1.0.1";
+    private static final String PATCH_NAME = JarPatcher.getPatchName("vcompat-" + NEW_VERSION + ".jar", OLD_VERSION);
+    private static final int TARGET = 1;
+
+    private static enum Scenario {
+
+        COLD,
+        WARM,
+        PATCH,
+        GZIP;
+
+    }
+
+    private static final class BenchApp extends CompatApp {
+
+        private final long start;
+        private final long[] times;
+        private final int index;
+        private final CountDownLatch latch;
+        private final AtomicInteger failed;
+        private final AtomicReference<String> failure;
+        private final int classes;
+        private final int sample;
+
+        public BenchApp(int index, long start, long[] times, CountDownLatch latch, AtomicInteger failed, AtomicReference<String> failure,
+            int classes, int sample) {
+            super("bench-" + index, TARGET);
+            this.start = start;
+            this.times = times;
+            this.index = index;
+            this.latch = latch;
+            this.failed = failed;
+            this.failure = failure;
+            this.classes = classes;
+            this.sample = sample;
+        }
+
+        @Override
+        protected void onReady() {
+            ClassLoader loader = CompatUpdater.INSTANCE.getCompatLoader();
+            try {
+                // Apps start on different classes so not every app hits the same already defined ones
+                for (int offset = 0; offset < sample; offset++) {
+                    Class.forName(className((index * sample + offset) % classes), false, loader);
+                }
+            } catch (ClassNotFoundException | LinkageError e) {
+                onFailed(Reason.UNKNOWN, e.toString(), e);
+                return;
+            }
+            times[index] = System.nanoTime() - start;
+            latch.countDown();
+        }
+
+        @Override
+        protected void onFailed(Reason reason, String message, Throwable throwable) {
+            times[index] = System.nanoTime() - start;
+            failed.incrementAndGet();
+            failure.compareAndSet(null, message);
+            latch.countDown();
+        }
+
+    }
+
+    private final String[] scenarios = System.getProperty("bench.scenarios", "cold,warm,patch,gzip").split(",");
+    private final int iterations = Integer.getInteger("bench.iterations", 5);
+    private final int apps = Integer.getInteger("bench.apps", 50);
+    private final int latency = Integer.getInteger("bench.latency", 50);
+    private final int bandwidth = Integer.getInteger("bench.bandwidth", 1024);
+    private final int pages = Integer.getInteger("bench.pages", 3);
+    private final int rateLimit = Integer.getInteger("bench.rateLimit", 0);
+    private final double drop = Double.parseDouble(System.getProperty("bench.drop", "0"));
+    private final int classes = Integer.getInteger("bench.classes", 500);
+    private final int companions = Integer.getInteger("bench.companions", 0);
+    private final LoaderMode loader = LoaderMode.valueOf(System.getProperty("bench.loader", "isolated").toUpperCase(Locale.ROOT));
+    private final int sample = Math.min(Integer.getInteger("bench.sample", 20), classes);
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger apiRequests = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private volatile Scenario scenario;
+
+    private HttpServer server;
+    private String url;
+
+    private byte[] jar;
+    private byte[] compressed;
+    private byte[] patch;
+    private Path oldJar;
+    private Path newJar;
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("bench.loader", "isolated").equalsIgnoreCase("injected")
+            && !(StartupBenchmark.class.getClassLoader() instanceof URLClassLoader)) {
+            // Injection needs a URLClassLoader above the updater which the application class loader isn't
+            List<URL> urls = new ArrayList<>();
+            for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                urls.add(Paths.get(entry).toUri().toURL());
+            }
+            try (URLClassLoader classLoader = new URLClassLoader(urls.toArray(new URL[0]), ClassLoader.getPlatformClassLoader())) {
+                classLoader.loadClass(StartupBenchmark.class.getName()).getMethod("main", String[].class).invoke(null, (Object) args);
+            }
+            return;
+        }
+        new StartupBenchmark().run();
+    }
+
+    private static String className(int index) {
+        return "net.sourcewriters.minecraft.vcompat.bench.Class" + index;
+    }
+
+    private void run() throws Exception {
+        Path workspace = Files.createTempDirectory("vcompat-bench");
+        prepareAssets(workspace);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+        CompatUpdater updater = CompatUpdater.INSTANCE;
+        updater.setReleaseSource(ReleaseSource.of(url + REPOSITORY));
+        updater.setLoaderMode(loader);
+        updater.setDirectory(workspace.resolve("plugins"));
+        for (int index = 0; index < companions; index++) {
+            updater.addArtifact(Artifact.builder("Companion" + index).source(ReleaseSource.of(url + REPOSITORY))
+                .directory(workspace.resolve("plugins")).rule(VersionRule.major(1)).build());
+        }
+        System.out.println(String.format(Locale.ROOT,
+            "apps=%d companions=%d loader=%s sample=%d latency=%dms bandwidth=%dKiB/s pages=%d rateLimit=%d drop=%.2f jar=%dB gzip=%dB patch=%dB",
+            apps, companions, loader.name().toLowerCase(Locale.ROOT), sample, latency, bandwidth, pages, rateLimit, drop, jar.length, compressed.length, patch.length));
+        System.out.println(String.format(Locale.ROOT, "%-6s %6s %6s %9s %9s %9s %9s %10s", "boot", "ready", "failed", "p50 ms",
+            "p95 ms", "max ms", "requests", "bytes"));
+        try {
+            for (String name : scenarios) {
+                scenario = Scenario.valueOf(name.trim().toUpperCase(Locale.ROOT));
+                for (int iteration = 0; iteration < iterations; iteration++) {
+                    measure(workspace.resolve("plugins"));
+                }
+            }
+        } finally {
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdownNow();
+        }
+    }
+
+    private void measure(Path directory) throws Exception {
+        Files.createDirectories(directory);
+        Path file = directory.resolve("vCompat.jar");
+        Files.deleteIfExists(file);
+        if (scenario == Scenario.WARM) {
+            Files.copy(newJar, file, StandardCopyOption.REPLACE_EXISTING);
+        } else if (scenario == Scenario.PATCH) {
+            Files.copy(oldJar, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        for (int index = 0; index < companions; index++) {
+            Path companion = directory.resolve("Companion" + index + ".jar");
+            Files.deleteIfExists(companion);
+            if (scenario == Scenario.WARM) {
+                Files.copy(newJar, companion);
+            }
+        }
+        requests.set(0);
+        apiRequests.set(0);
+        bytes.set(0);
+        long[] times = new long[apps];
+        BenchApp[] list = new BenchApp[apps];
+        CountDownLatch latch = new CountDownLatch(apps);
+        AtomicInteger failed = new AtomicInteger();
+        AtomicReference<String> failure = new AtomicReference<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(apps, 16));
+        long start = System.nanoTime();
+        for (int index = 0; index < apps; index++) {
+            int current = index;
+            executor.execute(() -> {
+                BenchApp app = new BenchApp(current, start, times, latch, failed, failure, classes, sample);
+                list[current] = app;
+                app.start();
+            });
+        }
+        boolean done = latch.await(2, TimeUnit.MINUTES);
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        CompatUpdater.INSTANCE.awaitPending(1, TimeUnit.MINUTES);
+        for (BenchApp app : list) {
+            if (app != null) {
+                app.stop();
+            }
+        }
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        int answered = (int) (apps - latch.getCount());
+        System.out.println(String.format(Locale.ROOT, "%-6s %6d %6d %9.1f %9.1f %9.1f %9d %10d%s", scenario.name().toLowerCase(Locale.ROOT),
+            answered - failed.get(), failed.get(), millis(sorted, 0.5), millis(sorted, 0.95), millis(sorted, 1), requests.get(), bytes.get(),
+            done ? "" : " (timed out)"));
+        if (failure.get() != null) {
+            System.out.println("       first failure: " + failure.get());
+        }
+    }
+
+    private double millis(long[] sorted, double percentile) {
+        int index = Math.max(0, (int) Math.ceil(sorted.length * percentile) - 1);
+        return sorted[index] / 1_000_000D;
+    }
+
+    private void prepareAssets(Path workspace) throws IOException {
+        oldJar = workspace.resolve("vcompat-" + OLD_VERSION + ".jar");
+        newJar = workspace.resolve("vcompat-" + NEW_VERSION + ".jar");
+        writeJar(oldJar, OLD_VERSION);
+        writeJar(newJar, NEW_VERSION);
+        jar = Files.readAllBytes(newJar);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(jar);
+        }
+        compressed = output.toByteArray();
+        Path patchFile = workspace.resolve(PATCH_NAME);
+        JarPatcher.create(oldJar, OLD_VERSION, newJar, NEW_VERSION, patchFile);
+        patch = Files.readAllBytes(patchFile);
+    }
+
+    private void writeJar(Path path, String version) throws IOException {
+        Random random = new Random(classes);
+        try (ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(path))) {
+            output.putNextEntry(new ZipEntry("META-INF/maven/net.sourcewriters.minecraft/vcompat/pom.properties"));
+            output.write(("groupId=net.sourcewriters.minecraft\nartifactId=vcompat\nversion=" + version + "\n").getBytes(StandardCharsets.UTF_8));
+            output.closeEntry();
+            char[] content = new char[4096];
+            for (int index = 0; index < classes; index++) {
+                output.putNextEntry(new ZipEntry(className(index).replace('.', '/') + ".class"));
+                for (int position = 0; position < content.length; position++) {
+                    content[position] = (char) ('a' + random.nextInt(8));
+                }
+                // Every twentieth class changes between versions
+                String payload = new String(content);
+                if (index % 20 == 0) {
+                    payload = version + payload.substring(version.length());
+                }
+                output.write(classFile(className(index).replace('.', '/'), payload));
+                output.closeEntry();
+            }
+        }
+    }
+
+    /*
+     * A loadable class without members, the payload is kept as an unused constant
+     */
+    private byte[] classFile(String name, String payload) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(buffer);
+        output.writeInt(0xCAFEBABE);
+        output.writeShort(0);
+        output.writeShort(55);
+        output.writeShort(6);
+        output.writeByte(1);
+        output.writeUTF(name);
+        output.writeByte(7);
+        output.writeShort(1);
+        output.writeByte(1);
+        output.writeUTF("java/lang/Object");
+        output.writeByte(7);
+        output.writeShort(3);
+        output.writeByte(1);
+        output.writeUTF(payload);
+        output.writeShort(0x21);
+        output.writeShort(2);
+        output.writeShort(4);
+        output.writeShort(0);
+        output.writeShort(0);
+        output.writeShort(0);
+        output.writeShort(0);
+        output.flush();
+        return buffer.toByteArray();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+            if (drop > 0 && ThreadLocalRandom.current().nextDouble() < drop) {
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            if (path.startsWith(REPOSITORY)) {
+                int count = apiRequests.incrementAndGet();
+                if (rateLimit > 0 && count % rateLimit == 0) {
+                    send(exchange, 403, "{\"message\":\"API rate limit exceeded for 127.0.0.1.\"}".getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                if (path.equals(REPOSITORY + "/tags")) {
+                    send(exchange, 200, tags(exchange.getRequestURI().getQuery()));
+                    return;
+                }
+                if (path.equals(REPOSITORY + "/releases/tags/v" + NEW_VERSION)) {
+                    send(exchange, 200, release());
+                    return;
+                }
+            } else if (path.equals("/assets/vcompat-" + NEW_VERSION + ".jar")
+                || (path.startsWith("/assets/companion") && path.endsWith("-" + NEW_VERSION + ".jar"))) {
+                send(exchange, 200, jar);
+                return;
+            } else if (path.equals("/assets/vcompat-" + NEW_VERSION + ".jar.gz")) {
+                send(exchange, 200, compressed);
+                return;
+            } else if (path.equals("/assets/" + PATCH_NAME)) {
+                send(exchange, 200, patch);
+                return;
+            }
+            send(exchange, 404, "{\"message\":\"Not Found\"}".getBytes(StandardCharsets.UTF_8));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void send(HttpExchange exchange, int code, byte[] body) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            int chunk = 8192;
+            for (int offset = 0; offset < body.length; offset += chunk) {
+                int length = Math.min(chunk, body.length - offset);
+                output.write(body, offset, length);
+                bytes.addAndGet(length);
+                if (bandwidth > 0) {
+                    Thread.sleep(length * 1000L / (bandwidth * 1024L));
+                }
+            }
+        }
+    }
+
+    private byte[] tags(String query) {
+        int page = 1;
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("page=")) {
+                    page = Integer.parseInt(parameter.substring(5));
+                }
+            }
+        }
+        StringBuilder builder = new StringBuilder("[");
+        if (page <= pages) {
+            for (int index = 0; index < 40; index++) {
+                String name = page == pages && index == 39 ? "v" + NEW_VERSION : "v0." + page + "." + index;
+                if (index != 0) {
+                    builder.append(',');
+                }
+                builder.append("{\"name\":\"").append(name).append("\",\"zipball_url\":\"").append(url).append("/zip/").append(name)
+                    .append("\",\"tarball_url\":\"").append(url).append("/tar/").append(name)
+                    .append("\",\"commit\":{\"sha\":\"0000000000000000000000000000000000000000\",\"url\":\"").append(url)
+                    .append("/commit\"},\"node_id\":\"MDM6UmVm\"}");
+            }
+        }
+        return builder.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] release() {
+        StringBuilder builder = new StringBuilder("{\"url\":\"").append(url).append("\",\"tag_name\":\"v").append(NEW_VERSION)
+            .append("\",\"body\":\"Benchmark release\",\"assets\":[");
+        for (int index = 0; index < 20; index++) {
+            asset(builder, "docs-" + index + ".zip");
+            builder.append(',');
+        }
+        // Must not be picked up as the release jar
+        asset(builder, "vcompat-" + NEW_VERSION + "-sources.jar");
+        builder.append(',');
+        asset(builder, "vcompat-" + NEW_VERSION + ".jar");
+        for (int index = 0; index < companions; index++) {
+            builder.append(',');
+            asset(builder, "companion" + index + "-" + NEW_VERSION + ".jar");
+        }
+        if (scenario == Scenario.GZIP) {
+            builder.append(',');
+            asset(builder, "vcompat-" + NEW_VERSION + ".jar.gz");
+        }
+        if (scenario == Scenario.PATCH) {
+            builder.append(',');
+            asset(builder, PATCH_NAME);
+        }
+        return builder.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void asset(StringBuilder builder, String name) {
+        builder.append("{\"url\":\"").append(url).append("/api/").append(name).append("\",\"name\":\"").append(name)
+            .append("\",\"label\":null,\"uploader\":{\"login\":\"bench\",\"id\":1,\"site_admin\":false},\"size\":1,\"download_count\":0")
+            .append(",\"browser_download_url\":\"").append(url).append("/assets/").append(name).append("\"}");
+    }
+
+}
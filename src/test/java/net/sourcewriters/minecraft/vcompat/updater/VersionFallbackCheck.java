@@ -0,0 +1,197 @@
+package net.sourcewriters.minecraft.vcompat.updater;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * Checks which vCompat version the updater picks for apps with mixed target
+ * versions and how the apps are notified, against a local stand-in for the
+ * GitHub api.
+ *
+ * Run with 'mvn test-compile' and
+ * 'java -cp target/classes:target/test-classes net.sourcewriters.minecraft.vcompat.updater.VersionFallbackCheck'
+ *
+ * Exits with an AssertionError on the first failed check.
+ */
+public final class VersionFallbackCheck {
+
+    private static final String REPOSITORY = "/repos/stub/vCompat";
+
+    private static final class CheckApp extends CompatApp {
+
+        private final CountDownLatch latch;
+
+        private volatile Reason reason;
+
+        public CheckApp(String id, int version, CountDownLatch latch) {
+            super(id, version);
+            this.latch = latch;
+        }
+
+        @Override
+        protected void onReady() {
+            latch.countDown();
+        }
+
+        @Override
+        protected void onFailed(Reason reason, String message, Throwable throwable) {
+            this.reason = reason;
+            latch.countDown();
+        }
+
+    }
+
+    private HttpServer server;
+    private String url;
+    private Path workspace;
+
+    private volatile String[] tags;
+
+    public static void main(String[] args) throws Exception {
+        new VersionFallbackCheck().run();
+    }
+
+    private void run() throws Exception {
+        workspace = Files.createTempDirectory("vcompat-fallback");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+        CompatUpdater updater = CompatUpdater.INSTANCE;
+        updater.setReleaseSource(ReleaseSource.of(url + REPOSITORY));
+        updater.setLoaderMode(LoaderMode.ISOLATED);
+        try {
+            check("falls back to a lower version", new String[] { "v3.0.0", "v1.2.0", "v1.1.0" }, "1.2.0", 1, AppState.FAILED,
+                AppState.RUNNING);
+            check("prefers the highest version", new String[] { "v2.1.0", "v1.2.0" }, "2.1.0", 2, AppState.RUNNING, AppState.FAILED);
+            check("fails without a compatible version", new String[] { "v3.0.0" }, null, 0, AppState.FAILED, AppState.FAILED);
+        } finally {
+            server.stop(0);
+        }
+        System.out.println("All checks passed");
+    }
+
+    /*
+     * Starts one app that wants version 2 and two that want version 1
+     */
+    private void check(String name, String[] tags, String installed, int version, AppState high, AppState low) throws Exception {
+        this.tags = tags;
+        CompatUpdater updater = CompatUpdater.INSTANCE;
+        updater.setDirectory(Files.createTempDirectory(workspace, "plugins"));
+        CountDownLatch latch = new CountDownLatch(3);
+        CheckApp[] apps = {
+            new CheckApp("high", 2, latch),
+            new CheckApp("low-1", 1, latch),
+            new CheckApp("low-2", 1, latch)
+        };
+        try {
+            equal(2, updater.getRequestedVersion());
+            equal("[2, 1]", Arrays.toString(updater.getRequestedVersions()));
+            equal(2, updater.getDemand(1));
+            for (CheckApp app : apps) {
+                app.start();
+            }
+            if (!latch.await(30, TimeUnit.SECONDS)) {
+                throw new AssertionError("apps were not notified");
+            }
+            equal(installed, updater.getInstalledVersion("vCompat"));
+            equal(installed == null ? State.FAILED : State.SUCCESS, updater.getState());
+            if (installed != null) {
+                equal(version, updater.getVersion());
+            }
+            equal(high, apps[0].getState());
+            for (int index = 1; index < apps.length; index++) {
+                equal(low, apps[index].getState());
+            }
+            for (CheckApp app : apps) {
+                // Apps that the installed version can't serve are told so instead of a generic failure
+                if (installed != null && app.getState() == AppState.FAILED) {
+                    equal(Reason.INCOMPATIBLE, app.reason);
+                }
+            }
+            apps[0].stop();
+            equal(1, updater.getRequestedVersion());
+            equal("[1]", Arrays.toString(updater.getRequestedVersions()));
+            equal(0, updater.getDemand(2));
+        } catch (AssertionError exp) {
+            throw new AssertionError(name + ": " + exp.getMessage(), exp);
+        } finally {
+            for (CheckApp app : apps) {
+                app.stop();
+            }
+        }
+        equal(0, updater.getRequestedVersion());
+        equal(0, updater.getRequestedVersions().length);
+        System.out.println("Passed " + name);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String query = exchange.getRequestURI().getQuery();
+            if (path.equals(REPOSITORY + "/tags")) {
+                StringBuilder builder = new StringBuilder("[");
+                // Every tag is listed on the first page
+                if (query != null && Arrays.asList(query.split("&")).contains("page=1")) {
+                    for (int index = 0; index < tags.length; index++) {
+                        builder.append(index == 0 ? "" : ",").append("{\"name\":\"").append(tags[index]).append("\"}");
+                    }
+                }
+                send(exchange, 200, builder.append(']').toString().getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            String release = REPOSITORY + "/releases/tags/v";
+            if (path.startsWith(release)) {
+                String version = path.substring(release.length());
+                send(exchange, 200, ("{\"assets\":[{\"name\":\"vcompat-" + version + ".jar\",\"browser_download_url\":\"" + url
+                    + "/assets/" + version + "\"}]}").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (path.startsWith("/assets/")) {
+                send(exchange, 200, jar(path.substring(8)));
+                return;
+            }
+            send(exchange, 404, "{\"message\":\"Not Found\"}".getBytes(StandardCharsets.UTF_8));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    private byte[] jar(String version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream output = new ZipOutputStream(bytes)) {
+            output.putNextEntry(new ZipEntry("META-INF/maven/net.sourcewriters.minecraft/vcompat/pom.properties"));
+            output.write(("version=" + version + "\n").getBytes(StandardCharsets.UTF_8));
+            output.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void equal(Object expected, Object actual) {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            throw new AssertionError("expected '" + expected + "' but was '" + actual + "'");
+        }
+    }
+
+}